@@ -1,3 +1,7 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class AES {
@@ -5,6 +9,7 @@ public class AES {
     public static final int SUCCESS = 0;
     public static final int ERROR_AES_UNKNOWN_KEYSIZE = 1;
     public static final int ERROR_MEMORY_ALLOCATION_FAILED = 2;
+    public static final int ERROR_AES_AUTH_FAILED = 3;
 
     public enum KeySize {
         SIZE_16(16), SIZE_24(24), SIZE_32(32);
@@ -120,6 +125,29 @@ public class AES {
         (byte)0xcc,(byte)0x83,(byte)0x1d,(byte)0x3a,(byte)0x74,(byte)0xe8,(byte)0xcb
     };
 
+    // x * k in GF(2^8) for every byte x, for (Inv)MixColumns
+    private static final byte[] mul2 = mulTable(2), mul3 = mulTable(3);
+    private static final byte[] mul9 = mulTable(9), mul11 = mulTable(11), mul13 = mulTable(13), mul14 = mulTable(14);
+
+    // k * S[x] and k * S^-1[x], for rounds that fuse the S-box into (Inv)MixColumns
+    private static final byte[] sbox2 = mulTable(2, sbox), sbox3 = mulTable(3, sbox);
+    private static final byte[] rsbox9 = mulTable(9, rsbox), rsbox11 = mulTable(11, rsbox);
+    private static final byte[] rsbox13 = mulTable(13, rsbox), rsbox14 = mulTable(14, rsbox);
+
+    private static byte[] mulTable(int k) {
+        byte[] table = new byte[256];
+        for (int x = 0; x < 256; x++)
+            table[x] = galoisMultiplication((byte) x, (byte) k);
+        return table;
+    }
+
+    private static byte[] mulTable(int k, byte[] box) {
+        byte[] table = new byte[256];
+        for (int x = 0; x < 256; x++)
+            table[x] = galoisMultiplication(box[x], (byte) k);
+        return table;
+    }
+
     // S-Box value
     public static byte getSBoxValue(byte num) {
         return sbox[num & 0xFF];
@@ -234,41 +262,40 @@ public class AES {
     }
 
     public static void mixColumns(byte[] state) {
-        byte[] column = new byte[4];
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++)
-                column[j] = state[j * 4 + i];
-            mixColumn(column);
-            for (int j = 0; j < 4; j++)
-                state[j * 4 + i] = column[j];
-        }
+        for (int i = 0; i < 4; i++)
+            mixColumn(state, i, 4);
     }
 
     public static void mixColumn(byte[] column) {
-        byte[] cpy = column.clone();
-        column[0] = (byte)(galoisMultiplication(cpy[0], (byte)2) ^ galoisMultiplication(cpy[1], (byte)3) ^ cpy[2] ^ cpy[3]);
-        column[1] = (byte)(cpy[0] ^ galoisMultiplication(cpy[1], (byte)2) ^ galoisMultiplication(cpy[2], (byte)3) ^ cpy[3]);
-        column[2] = (byte)(cpy[0] ^ cpy[1] ^ galoisMultiplication(cpy[2], (byte)2) ^ galoisMultiplication(cpy[3], (byte)3));
-        column[3] = (byte)(galoisMultiplication(cpy[0], (byte)3) ^ cpy[1] ^ cpy[2] ^ galoisMultiplication(cpy[3], (byte)2));
+        mixColumn(column, 0, 1);
+    }
+
+    // Column bytes sit at off, off + stride, off + 2 * stride, off + 3 * stride
+    private static void mixColumn(byte[] state, int off, int stride) {
+        int c0 = state[off] & 0xFF, c1 = state[off + stride] & 0xFF;
+        int c2 = state[off + 2 * stride] & 0xFF, c3 = state[off + 3 * stride] & 0xFF;
+        state[off] = (byte)(mul2[c0] ^ mul3[c1] ^ c2 ^ c3);
+        state[off + stride] = (byte)(c0 ^ mul2[c1] ^ mul3[c2] ^ c3);
+        state[off + 2 * stride] = (byte)(c0 ^ c1 ^ mul2[c2] ^ mul3[c3]);
+        state[off + 3 * stride] = (byte)(mul3[c0] ^ c1 ^ c2 ^ mul2[c3]);
     }
 
     public static void invMixColumns(byte[] state) {
-        byte[] column = new byte[4];
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++)
-                column[j] = state[j * 4 + i];
-            invMixColumn(column);
-            for (int j = 0; j < 4; j++)
-                state[j * 4 + i] = column[j];
-        }
+        for (int i = 0; i < 4; i++)
+            invMixColumn(state, i, 4);
     }
 
     public static void invMixColumn(byte[] column) {
-        byte[] cpy = column.clone();
-        column[0] = (byte)(galoisMultiplication(cpy[0], (byte)0x0e) ^ galoisMultiplication(cpy[1], (byte)0x0b) ^ galoisMultiplication(cpy[2], (byte)0x0d) ^ galoisMultiplication(cpy[3], (byte)0x09));
-        column[1] = (byte)(galoisMultiplication(cpy[0], (byte)0x09) ^ galoisMultiplication(cpy[1], (byte)0x0e) ^ galoisMultiplication(cpy[2], (byte)0x0b) ^ galoisMultiplication(cpy[3], (byte)0x0d));
-        column[2] = (byte)(galoisMultiplication(cpy[0], (byte)0x0d) ^ galoisMultiplication(cpy[1], (byte)0x09) ^ galoisMultiplication(cpy[2], (byte)0x0e) ^ galoisMultiplication(cpy[3], (byte)0x0b));
-        column[3] = (byte)(galoisMultiplication(cpy[0], (byte)0x0b) ^ galoisMultiplication(cpy[1], (byte)0x0d) ^ galoisMultiplication(cpy[2], (byte)0x09) ^ galoisMultiplication(cpy[3], (byte)0x0e));
+        invMixColumn(column, 0, 1);
+    }
+
+    private static void invMixColumn(byte[] state, int off, int stride) {
+        int c0 = state[off] & 0xFF, c1 = state[off + stride] & 0xFF;
+        int c2 = state[off + 2 * stride] & 0xFF, c3 = state[off + 3 * stride] & 0xFF;
+        state[off] = (byte)(mul14[c0] ^ mul11[c1] ^ mul13[c2] ^ mul9[c3]);
+        state[off + stride] = (byte)(mul9[c0] ^ mul14[c1] ^ mul11[c2] ^ mul13[c3]);
+        state[off + 2 * stride] = (byte)(mul13[c0] ^ mul9[c1] ^ mul14[c2] ^ mul11[c3]);
+        state[off + 3 * stride] = (byte)(mul11[c0] ^ mul13[c1] ^ mul9[c2] ^ mul14[c3]);
     }
 
     public static void aesRound(byte[] state, byte[] roundKey) {
@@ -285,9 +312,66 @@ public class AES {
         invMixColumns(state);
     }
 
+    // aesRound in one pass: every output byte is four table lookups and the
+    // key byte. Reads the whole state first since ShiftRows crosses columns.
+    private static void fusedRound(byte[] state, byte[] roundKey) {
+        int s00 = state[0] & 0xFF, s01 = state[1] & 0xFF, s02 = state[2] & 0xFF, s03 = state[3] & 0xFF;
+        int s10 = state[4] & 0xFF, s11 = state[5] & 0xFF, s12 = state[6] & 0xFF, s13 = state[7] & 0xFF;
+        int s20 = state[8] & 0xFF, s21 = state[9] & 0xFF, s22 = state[10] & 0xFF, s23 = state[11] & 0xFF;
+        int s30 = state[12] & 0xFF, s31 = state[13] & 0xFF, s32 = state[14] & 0xFF, s33 = state[15] & 0xFF;
+        fusedColumn(state, 0, s00, s11, s22, s33, roundKey);
+        fusedColumn(state, 1, s01, s12, s23, s30, roundKey);
+        fusedColumn(state, 2, s02, s13, s20, s31, roundKey);
+        fusedColumn(state, 3, s03, s10, s21, s32, roundKey);
+    }
+
+    private static void fusedColumn(byte[] state, int c, int a0, int a1, int a2, int a3, byte[] roundKey) {
+        state[c] = (byte)(sbox2[a0] ^ sbox3[a1] ^ sbox[a2] ^ sbox[a3] ^ roundKey[c]);
+        state[4 + c] = (byte)(sbox[a0] ^ sbox2[a1] ^ sbox3[a2] ^ sbox[a3] ^ roundKey[4 + c]);
+        state[8 + c] = (byte)(sbox[a0] ^ sbox[a1] ^ sbox2[a2] ^ sbox3[a3] ^ roundKey[8 + c]);
+        state[12 + c] = (byte)(sbox3[a0] ^ sbox[a1] ^ sbox[a2] ^ sbox2[a3] ^ roundKey[12 + c]);
+    }
+
+    // Round of the equivalent inverse cipher (FIPS-197 5.3.5) in one pass, the
+    // mirror image of fusedRound: InvSubBytes, InvShiftRows, InvMixColumns and
+    // a round key that already has InvMixColumns applied
+    private static void fusedInvRound(byte[] state, byte[] roundKey) {
+        int s00 = state[0] & 0xFF, s01 = state[1] & 0xFF, s02 = state[2] & 0xFF, s03 = state[3] & 0xFF;
+        int s10 = state[4] & 0xFF, s11 = state[5] & 0xFF, s12 = state[6] & 0xFF, s13 = state[7] & 0xFF;
+        int s20 = state[8] & 0xFF, s21 = state[9] & 0xFF, s22 = state[10] & 0xFF, s23 = state[11] & 0xFF;
+        int s30 = state[12] & 0xFF, s31 = state[13] & 0xFF, s32 = state[14] & 0xFF, s33 = state[15] & 0xFF;
+        fusedInvColumn(state, 0, s00, s13, s22, s31, roundKey);
+        fusedInvColumn(state, 1, s01, s10, s23, s32, roundKey);
+        fusedInvColumn(state, 2, s02, s11, s20, s33, roundKey);
+        fusedInvColumn(state, 3, s03, s12, s21, s30, roundKey);
+    }
+
+    private static void fusedInvColumn(byte[] state, int c, int a0, int a1, int a2, int a3, byte[] roundKey) {
+        state[c] = (byte)(rsbox14[a0] ^ rsbox11[a1] ^ rsbox13[a2] ^ rsbox9[a3] ^ roundKey[c]);
+        state[4 + c] = (byte)(rsbox9[a0] ^ rsbox14[a1] ^ rsbox11[a2] ^ rsbox13[a3] ^ roundKey[4 + c]);
+        state[8 + c] = (byte)(rsbox13[a0] ^ rsbox9[a1] ^ rsbox14[a2] ^ rsbox11[a3] ^ roundKey[8 + c]);
+        state[12 + c] = (byte)(rsbox11[a0] ^ rsbox13[a1] ^ rsbox9[a2] ^ rsbox14[a3] ^ roundKey[12 + c]);
+    }
+
+    // The state is stored row by row (state[4 * row + col]) while key and data
+    // bytes are laid out column by column, hence the transposition. Before the
+    // GCM support no transposition was done: a format break, see the README.
     public static void createRoundKey(byte[] expandedKey, int round, byte[] roundKey) {
-        for (int i = 0; i < 16; i++)
-            roundKey[i] = expandedKey[round * 16 + i];
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++)
+                roundKey[i + j * 4] = expandedKey[round * 16 + i * 4 + j];
+    }
+
+    public static void mapBlock(byte[] input, int inOff, byte[] block) {
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++)
+                block[i + j * 4] = input[inOff + i * 4 + j];
+    }
+
+    public static void unmapBlock(byte[] block, byte[] output, int outOff) {
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++)
+                output[outOff + i * 4 + j] = block[i + j * 4];
     }
 
     public static void aesMain(byte[] state, byte[] expandedKey, int nbrRounds) {
@@ -304,6 +388,17 @@ public class AES {
         addRoundKey(state, roundKey);
     }
 
+    public static void aesMain(byte[] state, KeySchedule schedule) {
+        byte[][] roundKeys = schedule.roundKeys();
+        int nbrRounds = schedule.nbrRounds;
+        addRoundKey(state, roundKeys[0]);
+        for (int i = 1; i < nbrRounds; i++)
+            fusedRound(state, roundKeys[i]);
+        subBytes(state);
+        shiftRows(state);
+        addRoundKey(state, roundKeys[nbrRounds]);
+    }
+
     public static void invAesMain(byte[] state, byte[] expandedKey, int nbrRounds) {
         byte[] roundKey = new byte[16];
         createRoundKey(expandedKey, nbrRounds, roundKey);
@@ -318,59 +413,442 @@ public class AES {
         addRoundKey(state, roundKey);
     }
 
-    public static int aesEncrypt(byte[] input, byte[] output, byte[] key, KeySize size) {
-        int nbrRounds;
+    public static void invAesMain(byte[] state, KeySchedule schedule) {
+        byte[][] invRoundKeys = schedule.invRoundKeys();
+        int nbrRounds = schedule.nbrRounds;
+        addRoundKey(state, invRoundKeys[0]);
+        for (int i = 1; i < nbrRounds; i++)
+            fusedInvRound(state, invRoundKeys[i]);
+        invSubBytes(state);
+        invShiftRows(state);
+        addRoundKey(state, invRoundKeys[nbrRounds]);
+    }
+
+    public static int getNbrRounds(KeySize size) {
         switch (size) {
-            case SIZE_16: nbrRounds = 10; break;
-            case SIZE_24: nbrRounds = 12; break;
-            case SIZE_32: nbrRounds = 14; break;
-            default: return ERROR_AES_UNKNOWN_KEYSIZE;
+            case SIZE_16: return 10;
+            case SIZE_24: return 12;
+            case SIZE_32: return 14;
+            default: return -1;
         }
-        int expandedKeySize = 16 * (nbrRounds + 1);
-        byte[] expandedKey = new byte[expandedKeySize];
-        byte[] block = new byte[16];
+    }
 
-        // Map input to block
-        for (int i = 0; i < 16; i++)
-            block[i] = input[i];
+    // Key schedule expanded once per key. The expanded key is fixed at
+    // construction; each engine's form of the round keys is built on that
+    // engine's first use (racing threads build identical arrays), so a key
+    // used with one engine pays for one form and an instance can be shared
+    // by any number of threads.
+    public static final class KeySchedule {
+        public final KeySize size;
+        public final int nbrRounds;
+        final byte[] expandedKey;
+        // set when the table forms must never be built (see the Engine constructor)
+        final boolean bitslicedOnly;
+        private volatile byte[][] roundKeys;     // round keys in encryption order
+        private volatile byte[][] invRoundKeys;  // equivalent inverse cipher keys, in decryption order
+        private volatile int[] encWords;         // column words for the T-table engine
+        private volatile int[] decWords;         // equivalent inverse cipher words
+        private volatile long[] bitslicedKeys;   // round keys for the bitsliced engine
+        volatile byte[] vectorKeys;              // round keys repeated per vector, built by AESVector
+
+        public KeySchedule(byte[] key, KeySize size) {
+            this(key, size, false);
+        }
 
-        expandKey(expandedKey, key, size, expandedKeySize);
-        aesMain(block, expandedKey, nbrRounds);
+        // With Engine.BITSLICED the key is expanded by the bitsliced S-box
+        // circuit and only the bitsliced round keys are ever built, so no step
+        // indexes a table with key bytes. Such a schedule is for BITSLICED
+        // only; any other engine gets the full schedule.
+        public KeySchedule(byte[] key, KeySize size, Engine engine) {
+            this(key, size, checkEngine(engine) == Engine.BITSLICED);
+        }
 
-        // Unmap block to output
-        for (int i = 0; i < 16; i++)
-            output[i] = block[i];
+        private KeySchedule(byte[] key, KeySize size, boolean bitslicedOnly) {
+            if (size == null)
+                throw new IllegalArgumentException("unknown key size");
+            if (key.length < size.value)
+                throw new IllegalArgumentException("key shorter than " + size.value + " bytes");
+            long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+            this.size = size;
+            this.nbrRounds = getNbrRounds(size);
+            this.bitslicedOnly = bitslicedOnly;
+
+            int expandedKeySize = 16 * (nbrRounds + 1);
+            if (bitslicedOnly) {
+                expandedKey = AESBitsliced.expandKey(key, size.value, expandedKeySize);
+            } else {
+                expandedKey = new byte[expandedKeySize];
+                expandKey(expandedKey, key, size, expandedKeySize);
+            }
+            if (AESMetrics.ENABLED)
+                AESMetrics.record(AESMetrics.Operation.KEY_EXPANSION, size, expandedKeySize, start, SUCCESS);
+        }
 
-        return SUCCESS;
+        byte[][] roundKeys() {
+            byte[][] rk = roundKeys;
+            if (rk == null) {
+                checkTables();
+                rk = new byte[nbrRounds + 1][16];
+                for (int i = 0; i <= nbrRounds; i++)
+                    createRoundKey(expandedKey, i, rk[i]);
+                roundKeys = rk;
+            }
+            return rk;
+        }
+
+        byte[][] invRoundKeys() {
+            byte[][] rk = invRoundKeys;
+            if (rk == null) {
+                byte[][] forward = roundKeys();
+                rk = new byte[nbrRounds + 1][];
+                for (int i = 0; i <= nbrRounds; i++) {
+                    rk[nbrRounds - i] = forward[i].clone();
+                    if (i != 0 && i != nbrRounds)
+                        invMixColumns(rk[nbrRounds - i]);
+                }
+                invRoundKeys = rk;
+            }
+            return rk;
+        }
+
+        int[] encWords() {
+            int[] w = encWords;
+            if (w == null) {
+                checkTables();
+                w = AESTTable.encryptionWords(expandedKey);
+                encWords = w;
+            }
+            return w;
+        }
+
+        int[] decWords() {
+            int[] w = decWords;
+            if (w == null) {
+                w = AESTTable.decryptionWords(encWords());
+                decWords = w;
+            }
+            return w;
+        }
+
+        long[] bitslicedKeys() {
+            long[] k = bitslicedKeys;
+            if (k == null) {
+                k = AESBitsliced.roundKeys(expandedKey);
+                bitslicedKeys = k;
+            }
+            return k;
+        }
+
+        // The table engines index tables with key bytes while building their forms
+        void checkTables() {
+            if (bitslicedOnly)
+                throw bitslicedOnly();
+        }
+
+        private static Engine checkEngine(Engine engine) {
+            if (engine == null)
+                throw new IllegalArgumentException("engine is null");
+            return engine;
+        }
+
+        // Thrown by the table engines when handed a BITSLICED-only schedule
+        static IllegalArgumentException bitslicedOnly() {
+            return new IllegalArgumentException("key schedule was built for the BITSLICED engine only");
+        }
+
+        public byte[] getExpandedKey() {
+            return expandedKey.clone();
+        }
+
+        // Zeroes all key material; the schedule must not be used afterwards
+        void destroy() {
+            Arrays.fill(expandedKey, (byte) 0);
+            wipe(roundKeys);
+            wipe(invRoundKeys);
+            int[] w = encWords;
+            if (w != null)
+                Arrays.fill(w, 0);
+            w = decWords;
+            if (w != null)
+                Arrays.fill(w, 0);
+            long[] k = bitslicedKeys;
+            if (k != null)
+                Arrays.fill(k, 0);
+            byte[] v = vectorKeys;
+            if (v != null)
+                Arrays.fill(v, (byte) 0);
+        }
+
+        private static void wipe(byte[][] keys) {
+            if (keys != null)
+                for (byte[] roundKey : keys)
+                    Arrays.fill(roundKey, (byte) 0);
+        }
     }
 
-    public static int aesDecrypt(byte[] input, byte[] output, byte[] key, KeySize size) {
-        int nbrRounds;
-        switch (size) {
-            case SIZE_16: nbrRounds = 10; break;
-            case SIZE_24: nbrRounds = 12; break;
-            case SIZE_32: nbrRounds = 14; break;
-            default: return ERROR_AES_UNKNOWN_KEYSIZE;
+    // Round engines. All produce identical output for every key size.
+    public enum Engine {
+        // subBytes / shiftRows / mixColumns / addRoundKey on a 16-byte state
+        BYTE {
+            public void encryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                byte[] block = engineBlock.get();
+                mapBlock(in, inOff, block);
+                aesMain(block, schedule);
+                unmapBlock(block, out, outOff);
+            }
+
+            public void decryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                byte[] block = engineBlock.get();
+                mapBlock(in, inOff, block);
+                invAesMain(block, schedule);
+                unmapBlock(block, out, outOff);
+            }
+        },
+        // four 32-bit column words and the Te/Td lookup tables
+        TTABLE {
+            public void encryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                AESTTable.encryptBlock(schedule, in, inOff, out, outOff);
+            }
+
+            public void decryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                AESTTable.decryptBlock(schedule, in, inOff, out, outOff);
+            }
+        },
+        // constant time: no secret-dependent table lookups or branches, key
+        // setup included when the schedule is built with this engine.
+        // Works on groups of four blocks, so prefer the multi-block calls.
+        BITSLICED {
+            public void encryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                AESBitsliced.encryptBlocks(schedule, in, inOff, out, outOff, 1);
+            }
+
+            public void decryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                AESBitsliced.decryptBlocks(schedule, in, inOff, out, outOff, 1);
+            }
+
+            public void encryptBlocks(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+                AESBitsliced.encryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+            }
+
+            public void decryptBlocks(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+                AESBitsliced.decryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+            }
+        },
+        // jdk.incubator.vector, several blocks per vector. Falls back to
+        // TTABLE when the module or a wide enough species is unavailable.
+        VECTOR {
+            public void encryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                encryptBlocks(schedule, in, inOff, out, outOff, 1);
+            }
+
+            public void decryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+                decryptBlocks(schedule, in, inOff, out, outOff, 1);
+            }
+
+            public void encryptBlocks(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+                if (VectorBridge.ENCRYPT == null)
+                    TTABLE.encryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+                else
+                    VectorBridge.invoke(VectorBridge.ENCRYPT, schedule, in, inOff, out, outOff, nBlocks);
+            }
+
+            public void decryptBlocks(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+                if (VectorBridge.DECRYPT == null)
+                    TTABLE.decryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+                else
+                    VectorBridge.invoke(VectorBridge.DECRYPT, schedule, in, inOff, out, outOff, nBlocks);
+            }
+        };
+
+        public abstract void encryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff);
+
+        public abstract void decryptBlock(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff);
+
+        // Independent blocks; in and out must be the same range or not overlap
+        public void encryptBlocks(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+            for (int i = 0; i < nBlocks; i++)
+                encryptBlock(schedule, in, inOff + 16 * i, out, outOff + 16 * i);
         }
-        int expandedKeySize = 16 * (nbrRounds + 1);
-        byte[] expandedKey = new byte[expandedKeySize];
-        byte[] block = new byte[16];
 
-        // Map input to block
-        for (int i = 0; i < 16; i++)
-            block[i] = input[i];
+        public void decryptBlocks(KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+            for (int i = 0; i < nBlocks; i++)
+                decryptBlock(schedule, in, inOff + 16 * i, out, outOff + 16 * i);
+        }
+    }
 
-        expandKey(expandedKey, key, size, expandedKeySize);
-        invAesMain(block, expandedKey, nbrRounds);
+    // AESVector needs --add-modules jdk.incubator.vector, so it is looked up
+    // at runtime and AES itself compiles and runs without the module
+    private static final class VectorBridge {
+        static final MethodHandle ENCRYPT;
+        static final MethodHandle DECRYPT;
+
+        static {
+            MethodHandle encrypt = null;
+            MethodHandle decrypt = null;
+            try {
+                Class<?> c = Class.forName("AESVector");
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                if ((boolean) lookup.findStatic(c, "isSupported", MethodType.methodType(boolean.class)).invoke()) {
+                    MethodType type = MethodType.methodType(void.class,
+                        KeySchedule.class, byte[].class, int.class, byte[].class, int.class, int.class);
+                    encrypt = lookup.findStatic(c, "encryptBlocks", type);
+                    decrypt = lookup.findStatic(c, "decryptBlocks", type);
+                }
+            } catch (Throwable t) {
+                // no module, class left out of the build, or no usable species
+            }
+            ENCRYPT = encrypt;
+            DECRYPT = decrypt;
+        }
 
-        // Unmap block to output
-        for (int i = 0; i < 16; i++)
-            output[i] = block[i];
+        static void invoke(MethodHandle mh, KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+            try {
+                mh.invokeExact(schedule, in, inOff, out, outOff, nBlocks);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
 
+    // True when Engine.VECTOR runs on the Vector API rather than its fallback
+    public static boolean isVectorAccelerated() {
+        return VectorBridge.ENCRYPT != null;
+    }
+
+    // Per-thread 16-byte states so the block paths allocate nothing once warm
+    private static final ThreadLocal<byte[]> engineBlock = ThreadLocal.withInitial(() -> new byte[16]);
+    private static final ThreadLocal<byte[]> bufferBlock = ThreadLocal.withInitial(() -> new byte[16]);
+
+    public static int aesEncrypt(byte[] in, int inOff, byte[] out, int outOff, KeySchedule schedule, Engine engine) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        engine.encryptBlock(schedule, in, inOff, out, outOff);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.BLOCK_ENCRYPT, schedule.size, 16, start, SUCCESS);
+        return SUCCESS;
+    }
+
+    public static int aesDecrypt(byte[] in, int inOff, byte[] out, int outOff, KeySchedule schedule, Engine engine) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        engine.decryptBlock(schedule, in, inOff, out, outOff);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.BLOCK_DECRYPT, schedule.size, 16, start, SUCCESS);
+        return SUCCESS;
+    }
+
+    // nBlocks independent blocks on the vector engine (T-table fallback);
+    // in and out must be the same range or not overlap
+    public static int encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int nBlocks, KeySchedule schedule) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        Engine.VECTOR.encryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.BLOCK_ENCRYPT, schedule.size, 16L * nBlocks, start, SUCCESS);
+        return SUCCESS;
+    }
+
+    public static int decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int nBlocks, KeySchedule schedule) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        Engine.VECTOR.decryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.BLOCK_DECRYPT, schedule.size, 16L * nBlocks, start, SUCCESS);
+        return SUCCESS;
+    }
+
+    // Consumes 16 bytes from in and writes 16 bytes to out, advancing both positions
+    public static int aesEncrypt(ByteBuffer in, ByteBuffer out, KeySchedule schedule, Engine engine) {
+        return bufferBlock(in, out, schedule, engine, true);
+    }
+
+    public static int aesDecrypt(ByteBuffer in, ByteBuffer out, KeySchedule schedule, Engine engine) {
+        return bufferBlock(in, out, schedule, engine, false);
+    }
+
+    private static int bufferBlock(ByteBuffer in, ByteBuffer out, KeySchedule schedule, Engine engine, boolean encrypt) {
+        if (in.remaining() < 16 || out.remaining() < 16)
+            throw new IllegalArgumentException("need 16 bytes in both buffers");
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            int inOff = in.arrayOffset() + in.position();
+            int outOff = out.arrayOffset() + out.position();
+            if (encrypt)
+                engine.encryptBlock(schedule, in.array(), inOff, out.array(), outOff);
+            else
+                engine.decryptBlock(schedule, in.array(), inOff, out.array(), outOff);
+            in.position(in.position() + 16);
+            out.position(out.position() + 16);
+        } else {
+            byte[] block = bufferBlock.get();
+            in.get(block);
+            if (encrypt)
+                engine.encryptBlock(schedule, block, 0, block, 0);
+            else
+                engine.decryptBlock(schedule, block, 0, block, 0);
+            out.put(block);
+        }
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(encrypt ? AESMetrics.Operation.BLOCK_ENCRYPT : AESMetrics.Operation.BLOCK_DECRYPT,
+                schedule.size, 16, start, SUCCESS);
         return SUCCESS;
     }
 
+    public static int aesEncrypt(byte[] input, byte[] output, KeySchedule schedule, Engine engine) {
+        return aesEncrypt(input, 0, output, 0, schedule, engine);
+    }
+
+    public static int aesDecrypt(byte[] input, byte[] output, KeySchedule schedule, Engine engine) {
+        return aesDecrypt(input, 0, output, 0, schedule, engine);
+    }
+
+    public static int aesEncrypt(byte[] input, byte[] output, KeySchedule schedule) {
+        return aesEncrypt(input, 0, output, 0, schedule, Engine.BYTE);
+    }
+
+    public static int aesDecrypt(byte[] input, byte[] output, KeySchedule schedule) {
+        return aesDecrypt(input, 0, output, 0, schedule, Engine.BYTE);
+    }
+
+    // The raw-key entry points look the schedule up in the shared key cache
+    // (see AESKeyCache), expanding the key only on a miss.
+    public static int aesEncrypt(byte[] input, byte[] output, byte[] key, KeySize size) {
+        if (size == null) {
+            if (AESMetrics.ENABLED)
+                AESMetrics.record(AESMetrics.Operation.BLOCK_ENCRYPT, null, 0, System.nanoTime(), ERROR_AES_UNKNOWN_KEYSIZE);
+            return ERROR_AES_UNKNOWN_KEYSIZE;
+        }
+        AESKeyCache cache = AESKeyCache.shared();
+        if (cache == null)
+            return aesEncrypt(input, output, new KeySchedule(key, size));
+        AESKeyCache.Entry entry = cache.acquire(key, size);
+        try {
+            return aesEncrypt(input, output, entry.schedule);
+        } finally {
+            entry.release();
+        }
+    }
+
+    public static int aesDecrypt(byte[] input, byte[] output, byte[] key, KeySize size) {
+        if (size == null) {
+            if (AESMetrics.ENABLED)
+                AESMetrics.record(AESMetrics.Operation.BLOCK_DECRYPT, null, 0, System.nanoTime(), ERROR_AES_UNKNOWN_KEYSIZE);
+            return ERROR_AES_UNKNOWN_KEYSIZE;
+        }
+        AESKeyCache cache = AESKeyCache.shared();
+        if (cache == null)
+            return aesDecrypt(input, output, new KeySchedule(key, size));
+        AESKeyCache.Entry entry = cache.acquire(key, size);
+        try {
+            return aesDecrypt(input, output, entry.schedule);
+        } finally {
+            entry.release();
+        }
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(AESFile.run(args));
+        }
+
         int expandedKeySize = 176;
         byte[] expandedKey = new byte[expandedKeySize];
         byte[] key = new byte[]{'k','k','k','k','e','e','e','e','y','y','y','y','.','.','.','.'};
@@ -0,0 +1,175 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+// Micro and throughput benchmarks for the cipher hot paths. Each case is
+// warmed up, then timed over several fixed-length iterations; the report
+// gives ops/s, MB/s (for cases that process data) and bytes allocated per op,
+// summed over every live thread so work handed to a pool is counted too.
+// Every op returns what it wrote (never a boxed value, which would allocate)
+// and the last one goes to a sink, so the JIT cannot drop the work.
+//
+// This is a quick harness, not JMH: one JVM, no forks, allocation from threads
+// that die mid-run is lost. For publishable numbers use the JMH module in jmh/.
+//
+// Usage: java AESBenchmark [regex] - runs the cases whose name matches.
+// Tunables: -Dbench.warmup=ms -Dbench.time=ms -Dbench.iterations=n
+public final class AESBenchmark {
+
+    interface Op {
+        Object run();
+    }
+
+    private static final long WARMUP_MS = Long.getLong("bench.warmup", 1000);
+    private static final long ITERATION_MS = Long.getLong("bench.time", 1000);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final int[] BULK_SIZES = { 1024, 64 * 1024, 16 * 1024 * 1024 };
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static Pattern filter;
+
+    // Last result of every case, published so no op is dead code
+    static volatile Object sink;
+
+    public static void main(String[] args) {
+        filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        System.out.printf("java %s (%s), %d cpus, vector accelerated: %b%n", System.getProperty("java.version"),
+            System.getProperty("java.vm.name"), Runtime.getRuntime().availableProcessors(), AES.isVectorAccelerated());
+        System.out.printf("%-34s %14s %10s %12s %12s%n", "benchmark", "ops/s", "+-%", "MB/s", "alloc B/op");
+
+        Random random = new Random(42);
+        byte[] in = new byte[16];
+        byte[] out = new byte[16];
+        random.nextBytes(in);
+
+        for (AES.KeySize size : AES.KeySize.values()) {
+            byte[] key = new byte[size.value];
+            random.nextBytes(key);
+            int expandedKeySize = 16 * (AES.getNbrRounds(size) + 1);
+            byte[] expandedKey = new byte[expandedKeySize];
+            AES.KeySchedule schedule = new AES.KeySchedule(key, size);
+            String k = "/" + size.value * 8;
+
+            bench("expandKey" + k, 0,
+                () -> { AES.expandKey(expandedKey, key, size, expandedKeySize); return expandedKey; });
+            bench("KeySchedule" + k, 0, () -> new AES.KeySchedule(key, size));
+            bench("aesEncrypt.rawKey" + k, 16, () -> { AES.aesEncrypt(in, out, key, size); return out; });
+            bench("aesDecrypt.rawKey" + k, 16, () -> { AES.aesDecrypt(in, out, key, size); return out; });
+            for (AES.Engine engine : AES.Engine.values()) {
+                String e = "." + engine.name().toLowerCase();
+                bench("aesEncrypt" + e + k, 16, () -> { engine.encryptBlock(schedule, in, 0, out, 0); return out; });
+                bench("aesDecrypt" + e + k, 16, () -> { engine.decryptBlock(schedule, in, 0, out, 0); return out; });
+            }
+        }
+
+        byte[] state = in.clone();
+        bench("round.subBytes", 16, () -> { AES.subBytes(state); return state; });
+        bench("round.shiftRows", 16, () -> { AES.shiftRows(state); return state; });
+        bench("round.mixColumns", 16, () -> { AES.mixColumns(state); return state; });
+        bench("round.invMixColumns", 16, () -> { AES.invMixColumns(state); return state; });
+
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        byte[] iv = new byte[16];
+        AES.KeySchedule schedule = new AES.KeySchedule(key, AES.KeySize.SIZE_16);
+        AESModes serial = new AESModes(schedule, AES.Engine.TTABLE, null, AESModes.DEFAULT_CHUNK_SIZE);
+        AESModes parallel = new AESModes(schedule);
+        AESCTR ctr = new AESCTR(schedule, iv);
+        AESGCM gcm = new AESGCM(schedule);
+        byte[] tweakKey = new byte[16];
+        random.nextBytes(tweakKey);
+        AESXTS xts = new AESXTS(schedule, new AES.KeySchedule(tweakKey, AES.KeySize.SIZE_16));
+        byte[] gcmIv = new byte[12];
+        byte[] tag = new byte[16];
+
+        for (int n : BULK_SIZES) {
+            byte[] src = new byte[n];
+            byte[] dst = new byte[n];
+            random.nextBytes(src);
+            String b = "/" + (n >= 1 << 20 ? (n >> 20) + "M" : (n >> 10) + "K");
+
+            for (AES.Engine engine : AES.Engine.values())
+                bench("blocks." + engine.name().toLowerCase() + b, n,
+                    () -> { engine.encryptBlocks(schedule, src, 0, dst, 0, n / 16); return dst; });
+            bench("ctr" + b, n, () -> { ctr.process(src, 0, dst, 0, n, 0); return dst; });
+            bench("ecb.encrypt" + b, n,
+                () -> { parallel.encrypt(AESModes.Mode.ECB, null, src, 0, n, dst, 0, false); return dst; });
+            bench("cbc.encrypt" + b, n,
+                () -> { serial.encrypt(AESModes.Mode.CBC, iv, src, 0, n, dst, 0, false); return dst; });
+            bench("cbc.decrypt.serial" + b, n,
+                () -> { serial.decrypt(AESModes.Mode.CBC, iv, src, 0, n, dst, 0, false); return dst; });
+            bench("cbc.decrypt" + b, n,
+                () -> { parallel.decrypt(AESModes.Mode.CBC, iv, src, 0, n, dst, 0, false); return dst; });
+            bench("gcm.encrypt" + b, n, () -> { gcm.encrypt(gcmIv, null, src, 0, n, dst, 0, tag); return dst; });
+            bench("xts.encrypt" + b, n, () -> { xts.encryptSectors(0, 512, src, 0, dst, 0, n); return dst; });
+            bench("xts.decrypt" + b, n, () -> { xts.decryptSectors(0, 512, src, 0, dst, 0, n); return dst; });
+        }
+    }
+
+    private static void bench(String name, int bytesPerOp, Op op) {
+        if (!filter.matcher(name).find())
+            return;
+        long batch = 1;
+        long end = System.nanoTime() + WARMUP_MS * 1_000_000;
+        Object last = null;
+        while (System.nanoTime() < end) {
+            long t = System.nanoTime();
+            for (long i = 0; i < batch; i++)
+                last = op.run();
+            // aim for ~10 ms per timed batch
+            if (System.nanoTime() - t < 10_000_000)
+                batch *= 2;
+        }
+
+        long thread = Thread.currentThread().getId();
+        double[] rates = new double[ITERATIONS];
+        long totalOps = 0;
+        Map<Long, Long> others = otherThreadsAllocated(thread);
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        for (int it = 0; it < ITERATIONS; it++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long stop = start + ITERATION_MS * 1_000_000;
+            long now;
+            do {
+                for (long i = 0; i < batch; i++)
+                    last = op.run();
+                ops += batch;
+                now = System.nanoTime();
+            } while (now < stop);
+            rates[it] = ops * 1e9 / (now - start);
+            totalOps += ops;
+        }
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        // Threads started during the run count from zero
+        for (Map.Entry<Long, Long> e : otherThreadsAllocated(thread).entrySet())
+            allocated += e.getValue() - others.getOrDefault(e.getKey(), 0L);
+        sink = last;
+
+        double mean = 0;
+        for (double r : rates)
+            mean += r / ITERATIONS;
+        double var = 0;
+        for (double r : rates)
+            var += (r - mean) * (r - mean) / ITERATIONS;
+        String mbs = bytesPerOp > 0 ? String.format("%12.1f", mean * bytesPerOp / 1e6) : String.format("%12s", "-");
+        System.out.printf("%-34s %14.1f %9.1f%% %s %12.1f%n", name, mean, 100 * Math.sqrt(var) / mean, mbs,
+            (double) allocated / totalOps);
+    }
+
+    // Allocated bytes of every live thread except the caller, whose own count
+    // is read separately so the snapshot arrays made here are not charged
+    private static Map<Long, Long> otherThreadsAllocated(long self) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> result = new HashMap<>();
+        for (int i = 0; i < ids.length; i++)
+            if (ids[i] != self && bytes[i] >= 0)
+                result.put(ids[i], bytes[i]);
+        return result;
+    }
+}
@@ -0,0 +1,436 @@
+import java.util.Arrays;
+
+// Constant-time engine after BearSSL's aes_ct64. Four blocks are bitsliced
+// into eight 64-bit words (q[i] holds bit i of every state byte), SubBytes is
+// the Boyar-Peralta Boolean circuit, and ShiftRows/MixColumns are shifts
+// and XORs. Nothing indexes memory with secret data and there are no
+// secret-dependent branches. Batches of eight blocks run as two such states.
+//
+// That covers key setup only for schedules built with
+// new AES.KeySchedule(key, size, AES.Engine.BITSLICED); the two-argument
+// constructor expands the key with tables, and so do the other engines when
+// they first build their round keys from it.
+public final class AESBitsliced {
+
+    private AESBitsliced() {
+    }
+
+    private static final int[] RCON = {0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1B, 0x36};
+
+    // Per-thread states so the block calls allocate nothing once warm
+    private static final ThreadLocal<long[]> blockState = ThreadLocal.withInitial(() -> new long[8]);
+    private static final ThreadLocal<int[]> blockWords = ThreadLocal.withInitial(() -> new int[16]);
+
+    // FIPS-197 key expansion with SubWord done by the S-box circuit (BearSSL's
+    // ct64_keysched), so unlike AES.expandKey no table is indexed by key bytes.
+    static byte[] expandKey(byte[] key, int keyLength, int expandedKeySize) {
+        int nk = keyLength / 4;
+        int nkf = expandedKeySize / 4;
+        int[] w = new int[nkf];
+        long[] q = new long[8];
+        for (int i = 0; i < nk; i++)
+            w[i] = getIntLE(key, 4 * i);
+        int tmp = w[nk - 1];
+        for (int i = nk, j = 0, k = 0; i < nkf; i++) {
+            if (j == 0) {
+                tmp = (tmp << 24) | (tmp >>> 8);
+                tmp = subWord(q, tmp) ^ RCON[k];
+            } else if (nk > 6 && j == 4) {
+                tmp = subWord(q, tmp);
+            }
+            tmp ^= w[i - nk];
+            w[i] = tmp;
+            if (++j == nk) {
+                j = 0;
+                k++;
+            }
+        }
+        byte[] expandedKey = new byte[expandedKeySize];
+        for (int i = 0; i < nkf; i++)
+            putIntLE(w[i], expandedKey, 4 * i);
+        Arrays.fill(w, 0);
+        Arrays.fill(q, 0);
+        return expandedKey;
+    }
+
+    // S-box applied to the four bytes of x
+    private static int subWord(long[] q, int x) {
+        q[0] = x & 0xFFFFFFFFL;
+        for (int i = 1; i < 8; i++)
+            q[i] = 0;
+        ortho(q);
+        sbox(q);
+        ortho(q);
+        return (int) q[0];
+    }
+
+    // Bitsliced round keys: eight words per round, the round key replicated
+    // into all four block slots.
+    static long[] roundKeys(byte[] expandedKey) {
+        int rounds = expandedKey.length / 16;
+        long[] sk = new long[rounds * 8];
+        long[] q = new long[8];
+        int[] w = new int[4];
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < 4; i++)
+                w[i] = getIntLE(expandedKey, 16 * r + 4 * i);
+            for (int slot = 0; slot < 4; slot++)
+                interleaveIn(q, slot, w, 0);
+            ortho(q);
+            System.arraycopy(q, 0, sk, 8 * r, 8);
+        }
+        return sk;
+    }
+
+    public static void encryptBlocks(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+        long[] sk = schedule.bitslicedKeys();
+        long[] q = blockState.get();
+        int[] w = blockWords.get();
+        for (int b = 0; b < nBlocks; b += 4) {
+            int n = Math.min(4, nBlocks - b);
+            load(q, w, in, inOff + 16 * b, n);
+            encrypt(schedule.nbrRounds, sk, q);
+            store(q, w, out, outOff + 16 * b, n);
+        }
+    }
+
+    public static void decryptBlocks(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+        long[] sk = schedule.bitslicedKeys();
+        long[] q = blockState.get();
+        int[] w = blockWords.get();
+        for (int b = 0; b < nBlocks; b += 4) {
+            int n = Math.min(4, nBlocks - b);
+            load(q, w, in, inOff + 16 * b, n);
+            decrypt(schedule.nbrRounds, sk, q);
+            store(q, w, out, outOff + 16 * b, n);
+        }
+    }
+
+    // Unused slots of a partial group are zero
+    private static void load(long[] q, int[] w, byte[] in, int inOff, int n) {
+        for (int i = 0; i < 16; i++)
+            w[i] = i < 4 * n ? getIntLE(in, inOff + 4 * i) : 0;
+        for (int slot = 0; slot < 4; slot++)
+            interleaveIn(q, slot, w, 4 * slot);
+        ortho(q);
+    }
+
+    private static void store(long[] q, int[] w, byte[] out, int outOff, int n) {
+        ortho(q);
+        for (int slot = 0; slot < 4; slot++)
+            interleaveOut(w, 4 * slot, q[slot], q[slot + 4]);
+        for (int i = 0; i < 4 * n; i++)
+            putIntLE(w[i], out, outOff + 4 * i);
+    }
+
+    static void encrypt(int nbrRounds, long[] sk, long[] q) {
+        addRoundKey(q, sk, 0);
+        for (int u = 1; u < nbrRounds; u++) {
+            sbox(q);
+            shiftRows(q);
+            mixColumns(q);
+            addRoundKey(q, sk, u << 3);
+        }
+        sbox(q);
+        shiftRows(q);
+        addRoundKey(q, sk, nbrRounds << 3);
+    }
+
+    static void decrypt(int nbrRounds, long[] sk, long[] q) {
+        addRoundKey(q, sk, nbrRounds << 3);
+        for (int u = nbrRounds - 1; u > 0; u--) {
+            invShiftRows(q);
+            invSbox(q);
+            addRoundKey(q, sk, u << 3);
+            invMixColumns(q);
+        }
+        invShiftRows(q);
+        invSbox(q);
+        addRoundKey(q, sk, 0);
+    }
+
+    private static void addRoundKey(long[] q, long[] sk, int off) {
+        for (int i = 0; i < 8; i++)
+            q[i] ^= sk[off + i];
+    }
+
+    static void sbox(long[] q) {
+        long x0 = q[7], x1 = q[6], x2 = q[5], x3 = q[4];
+        long x4 = q[3], x5 = q[2], x6 = q[1], x7 = q[0];
+
+        // Top linear transformation
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        // Non-linear section
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        // Bottom linear transformation
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        q[7] = s0; q[6] = s1; q[5] = s2; q[4] = s3;
+        q[3] = s4; q[2] = s5; q[1] = s6; q[0] = s7;
+    }
+
+    // The inverse S-box is the forward one wrapped in the inverse affine map
+    static void invSbox(long[] q) {
+        invAffine(q);
+        sbox(q);
+        invAffine(q);
+    }
+
+    private static void invAffine(long[] q) {
+        long q0 = ~q[0], q1 = ~q[1], q2 = q[2], q3 = q[3];
+        long q4 = q[4], q5 = ~q[5], q6 = ~q[6], q7 = q[7];
+        q[7] = q1 ^ q4 ^ q6;
+        q[6] = q0 ^ q3 ^ q5;
+        q[5] = q7 ^ q2 ^ q4;
+        q[4] = q6 ^ q1 ^ q3;
+        q[3] = q5 ^ q0 ^ q2;
+        q[2] = q4 ^ q7 ^ q1;
+        q[1] = q3 ^ q6 ^ q0;
+        q[0] = q2 ^ q5 ^ q7;
+    }
+
+    private static void shiftRows(long[] q) {
+        for (int i = 0; i < 8; i++) {
+            long x = q[i];
+            q[i] = (x & 0x000000000000FFFFL)
+                | ((x & 0x00000000FFF00000L) >>> 4)
+                | ((x & 0x00000000000F0000L) << 12)
+                | ((x & 0x0000FF0000000000L) >>> 8)
+                | ((x & 0x000000FF00000000L) << 8)
+                | ((x & 0xF000000000000000L) >>> 12)
+                | ((x & 0x0FFF000000000000L) << 4);
+        }
+    }
+
+    private static void invShiftRows(long[] q) {
+        for (int i = 0; i < 8; i++) {
+            long x = q[i];
+            q[i] = (x & 0x000000000000FFFFL)
+                | ((x & 0x000000000FFF0000L) << 4)
+                | ((x & 0x00000000F0000000L) >>> 12)
+                | ((x & 0x000000FF00000000L) << 8)
+                | ((x & 0x0000FF0000000000L) >>> 8)
+                | ((x & 0x000F000000000000L) << 12)
+                | ((x & 0xFFF0000000000000L) >>> 4);
+        }
+    }
+
+    private static long rotr32(long x) {
+        return (x << 32) | (x >>> 32);
+    }
+
+    private static void mixColumns(long[] q) {
+        long q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        long q4 = q[4], q5 = q[5], q6 = q[6], q7 = q[7];
+        long r0 = (q0 >>> 16) | (q0 << 48);
+        long r1 = (q1 >>> 16) | (q1 << 48);
+        long r2 = (q2 >>> 16) | (q2 << 48);
+        long r3 = (q3 >>> 16) | (q3 << 48);
+        long r4 = (q4 >>> 16) | (q4 << 48);
+        long r5 = (q5 >>> 16) | (q5 << 48);
+        long r6 = (q6 >>> 16) | (q6 << 48);
+        long r7 = (q7 >>> 16) | (q7 << 48);
+
+        q[0] = q7 ^ r7 ^ r0 ^ rotr32(q0 ^ r0);
+        q[1] = q0 ^ r0 ^ q7 ^ r7 ^ r1 ^ rotr32(q1 ^ r1);
+        q[2] = q1 ^ r1 ^ r2 ^ rotr32(q2 ^ r2);
+        q[3] = q2 ^ r2 ^ q7 ^ r7 ^ r3 ^ rotr32(q3 ^ r3);
+        q[4] = q3 ^ r3 ^ q7 ^ r7 ^ r4 ^ rotr32(q4 ^ r4);
+        q[5] = q4 ^ r4 ^ r5 ^ rotr32(q5 ^ r5);
+        q[6] = q5 ^ r5 ^ r6 ^ rotr32(q6 ^ r6);
+        q[7] = q6 ^ r6 ^ r7 ^ rotr32(q7 ^ r7);
+    }
+
+    private static void invMixColumns(long[] q) {
+        long q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3];
+        long q4 = q[4], q5 = q[5], q6 = q[6], q7 = q[7];
+        long r0 = (q0 >>> 16) | (q0 << 48);
+        long r1 = (q1 >>> 16) | (q1 << 48);
+        long r2 = (q2 >>> 16) | (q2 << 48);
+        long r3 = (q3 >>> 16) | (q3 << 48);
+        long r4 = (q4 >>> 16) | (q4 << 48);
+        long r5 = (q5 >>> 16) | (q5 << 48);
+        long r6 = (q6 >>> 16) | (q6 << 48);
+        long r7 = (q7 >>> 16) | (q7 << 48);
+
+        q[0] = q5 ^ q6 ^ q7 ^ r0 ^ r5 ^ r7 ^ rotr32(q0 ^ q5 ^ q6 ^ r0 ^ r5);
+        q[1] = q0 ^ q5 ^ r0 ^ r1 ^ r5 ^ r6 ^ r7 ^ rotr32(q1 ^ q5 ^ q7 ^ r1 ^ r5 ^ r6);
+        q[2] = q0 ^ q1 ^ q6 ^ r1 ^ r2 ^ r6 ^ r7 ^ rotr32(q0 ^ q2 ^ q6 ^ r2 ^ r6 ^ r7);
+        q[3] = q0 ^ q1 ^ q2 ^ q5 ^ q6 ^ r0 ^ r2 ^ r3 ^ r5 ^ rotr32(q0 ^ q1 ^ q3 ^ q5 ^ q6 ^ q7 ^ r0 ^ r3 ^ r5 ^ r7);
+        q[4] = q1 ^ q2 ^ q3 ^ q5 ^ r1 ^ r3 ^ r4 ^ r5 ^ r6 ^ r7 ^ rotr32(q1 ^ q2 ^ q4 ^ q5 ^ q7 ^ r1 ^ r4 ^ r5 ^ r6);
+        q[5] = q2 ^ q3 ^ q4 ^ q6 ^ r2 ^ r4 ^ r5 ^ r6 ^ r7 ^ rotr32(q2 ^ q3 ^ q5 ^ q6 ^ r2 ^ r5 ^ r6 ^ r7);
+        q[6] = q3 ^ q4 ^ q5 ^ q7 ^ r3 ^ r5 ^ r6 ^ r7 ^ rotr32(q3 ^ q4 ^ q6 ^ q7 ^ r3 ^ r6 ^ r7);
+        q[7] = q4 ^ q5 ^ q6 ^ r4 ^ r6 ^ r7 ^ rotr32(q4 ^ q5 ^ q7 ^ r4 ^ r7);
+    }
+
+    // Spreads the four little-endian words of one block over q[slot] and q[slot + 4]
+    private static void interleaveIn(long[] q, int slot, int[] w, int off) {
+        long x0 = w[off] & 0xFFFFFFFFL, x1 = w[off + 1] & 0xFFFFFFFFL;
+        long x2 = w[off + 2] & 0xFFFFFFFFL, x3 = w[off + 3] & 0xFFFFFFFFL;
+        x0 |= x0 << 16; x1 |= x1 << 16; x2 |= x2 << 16; x3 |= x3 << 16;
+        x0 &= 0x0000FFFF0000FFFFL; x1 &= 0x0000FFFF0000FFFFL;
+        x2 &= 0x0000FFFF0000FFFFL; x3 &= 0x0000FFFF0000FFFFL;
+        x0 |= x0 << 8; x1 |= x1 << 8; x2 |= x2 << 8; x3 |= x3 << 8;
+        x0 &= 0x00FF00FF00FF00FFL; x1 &= 0x00FF00FF00FF00FFL;
+        x2 &= 0x00FF00FF00FF00FFL; x3 &= 0x00FF00FF00FF00FFL;
+        q[slot] = x0 | (x2 << 8);
+        q[slot + 4] = x1 | (x3 << 8);
+    }
+
+    private static void interleaveOut(int[] w, int off, long q0, long q1) {
+        long x0 = q0 & 0x00FF00FF00FF00FFL;
+        long x1 = q1 & 0x00FF00FF00FF00FFL;
+        long x2 = (q0 >>> 8) & 0x00FF00FF00FF00FFL;
+        long x3 = (q1 >>> 8) & 0x00FF00FF00FF00FFL;
+        x0 |= x0 >>> 8; x1 |= x1 >>> 8; x2 |= x2 >>> 8; x3 |= x3 >>> 8;
+        x0 &= 0x0000FFFF0000FFFFL; x1 &= 0x0000FFFF0000FFFFL;
+        x2 &= 0x0000FFFF0000FFFFL; x3 &= 0x0000FFFF0000FFFFL;
+        w[off] = (int) (x0 | (x0 >>> 16));
+        w[off + 1] = (int) (x1 | (x1 >>> 16));
+        w[off + 2] = (int) (x2 | (x2 >>> 16));
+        w[off + 3] = (int) (x3 | (x3 >>> 16));
+    }
+
+    // Transposes q between byte-sliced and bit-sliced form; it is its own inverse
+    private static void ortho(long[] q) {
+        swap(q, 0, 1, 0x5555555555555555L, 1); swap(q, 2, 3, 0x5555555555555555L, 1);
+        swap(q, 4, 5, 0x5555555555555555L, 1); swap(q, 6, 7, 0x5555555555555555L, 1);
+        swap(q, 0, 2, 0x3333333333333333L, 2); swap(q, 1, 3, 0x3333333333333333L, 2);
+        swap(q, 4, 6, 0x3333333333333333L, 2); swap(q, 5, 7, 0x3333333333333333L, 2);
+        swap(q, 0, 4, 0x0F0F0F0F0F0F0F0FL, 4); swap(q, 1, 5, 0x0F0F0F0F0F0F0F0FL, 4);
+        swap(q, 2, 6, 0x0F0F0F0F0F0F0F0FL, 4); swap(q, 3, 7, 0x0F0F0F0F0F0F0F0FL, 4);
+    }
+
+    private static void swap(long[] q, int x, int y, long cl, int s) {
+        long a = q[x], b = q[y];
+        q[x] = (a & cl) | ((b & cl) << s);
+        q[y] = ((a & ~cl) >>> s) | (b & ~cl);
+    }
+
+    private static int getIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | (b[off + 3] << 24);
+    }
+
+    private static void putIntLE(int v, byte[] b, int off) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+}
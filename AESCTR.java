@@ -0,0 +1,162 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Counter mode. Keystream byte n comes from block n / 16, the encryption of
+// iv + n / 16 (128-bit big-endian add), so every range of the stream can be
+// produced on its own: large inputs are cut into chunks and generated on an
+// executor, and the stream can be entered at any byte offset.
+public final class AESCTR {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    // Counter blocks handed to the engine per call, so multi-block engines
+    // see full batches
+    private static final int BATCH_BLOCKS = 16;
+
+    private final AES.KeySchedule schedule;
+    private final AES.Engine engine;
+    private final byte[] iv;
+    private final Executor executor;
+    private final int chunkSize;
+    private long position;
+
+    public AESCTR(AES.KeySchedule schedule, byte[] iv) {
+        this(schedule, iv, AES.Engine.TTABLE, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    // A null executor processes everything on the calling thread
+    public AESCTR(AES.KeySchedule schedule, byte[] iv, AES.Engine engine, Executor executor, int chunkSize) {
+        if (iv.length != 16)
+            throw new IllegalArgumentException("iv must be 16 bytes");
+        if (chunkSize < 16)
+            throw new IllegalArgumentException("chunk size must be at least 16 bytes");
+        this.schedule = schedule;
+        this.engine = engine;
+        this.iv = iv.clone();
+        this.executor = executor;
+        this.chunkSize = chunkSize & ~15;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public void seek(long offset) {
+        if (offset < 0)
+            throw new IllegalArgumentException("negative offset");
+        position = offset;
+    }
+
+    // Encrypts or decrypts len bytes at the current position and advances it
+    public void update(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        process(in, inOff, out, outOff, len, position);
+        position += len;
+    }
+
+    // Encrypts or decrypts len bytes located at byte offset streamOffset of the
+    // keystream. Does not touch the current position and is safe to call from
+    // several threads at once. in and out may overlap; a partial overlap
+    // costs a copy of the input.
+    public void process(byte[] in, int inOff, byte[] out, int outOff, int len, long streamOffset) {
+        if (streamOffset < 0)
+            throw new IllegalArgumentException("negative offset");
+        long begin = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        boolean copy = AESParallel.partialOverlap(in, inOff, out, outOff, len);
+        byte[] src = copy ? Arrays.copyOfRange(in, inOff, inOff + len) : in;
+        int srcOff = copy ? 0 : inOff;
+        AESParallel.forEachChunk(executor, len, chunkSize,
+            (start, n) -> xorKeyStream(src, srcOff + start, out, outOff + start, n, streamOffset + start));
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.CTR, schedule.size, len, begin, AES.SUCCESS);
+    }
+
+    // Same for buffers, including memory-mapped ones: reads in[inPos..] and
+    // writes out[outPos..] by absolute index, leaving positions and limits alone.
+    public void process(ByteBuffer in, int inPos, ByteBuffer out, int outPos, int len, long streamOffset) {
+        if (streamOffset < 0)
+            throw new IllegalArgumentException("negative offset");
+        long begin = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        AESParallel.forEachChunk(executor, len, chunkSize,
+            (start, n) -> xorKeyStream(in.duplicate().order(ByteOrder.BIG_ENDIAN), inPos + start,
+                out.duplicate().order(ByteOrder.BIG_ENDIAN), outPos + start, n, streamOffset + start));
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.CTR, schedule.size, len, begin, AES.SUCCESS);
+    }
+
+    private void xorKeyStream(byte[] in, int inOff, byte[] out, int outOff, int len, long streamOffset) {
+        byte[] counter = new byte[16];
+        byte[] counters = new byte[BATCH_BLOCKS * 16];
+        byte[] keyStream = new byte[BATCH_BLOCKS * 16];
+        counterBlock(iv, streamOffset >>> 4, counter);
+        int skip = (int) (streamOffset & 15);
+        while (len > 0) {
+            int n = Math.min(nextKeyStream(counter, counters, keyStream, skip, len) - skip, len);
+            for (int i = 0; i < n; i++)
+                out[outOff + i] = (byte) (in[inOff + i] ^ keyStream[skip + i]);
+            inOff += n;
+            outOff += n;
+            len -= n;
+            skip = 0;
+        }
+    }
+
+    private void xorKeyStream(ByteBuffer in, int inPos, ByteBuffer out, int outPos, int len, long streamOffset) {
+        byte[] counter = new byte[16];
+        byte[] counters = new byte[BATCH_BLOCKS * 16];
+        byte[] keyStream = new byte[BATCH_BLOCKS * 16];
+        counterBlock(iv, streamOffset >>> 4, counter);
+        int skip = (int) (streamOffset & 15);
+        while (len > 0) {
+            int n = Math.min(nextKeyStream(counter, counters, keyStream, skip, len) - skip, len);
+            int i = 0;
+            // 64-bit XORs straight between the buffers, bytes for the tail
+            for (; i + 8 <= n; i += 8)
+                out.putLong(outPos + i, in.getLong(inPos + i) ^ getLong(keyStream, skip + i));
+            for (; i < n; i++)
+                out.put(outPos + i, (byte) (in.get(inPos + i) ^ keyStream[skip + i]));
+            inPos += n;
+            outPos += n;
+            len -= n;
+            skip = 0;
+        }
+    }
+
+    // Encrypts the next counter blocks in one engine call, enough to cover
+    // skip + len bytes up to BATCH_BLOCKS. Returns the keystream bytes produced.
+    private int nextKeyStream(byte[] counter, byte[] counters, byte[] keyStream, int skip, int len) {
+        int blocks = (int) Math.min(BATCH_BLOCKS, ((long) skip + len + 15) >>> 4);
+        for (int b = 0; b < blocks; b++) {
+            System.arraycopy(counter, 0, counters, 16 * b, 16);
+            increment(counter);
+        }
+        engine.encryptBlocks(schedule, counters, 0, keyStream, 0, blocks);
+        return 16 * blocks;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    // counter = iv + blockIndex
+    static void counterBlock(byte[] iv, long blockIndex, byte[] counter) {
+        int carry = 0;
+        for (int i = 15; i >= 0; i--) {
+            int add = i >= 8 ? (int) (blockIndex >>> (8 * (15 - i))) & 0xFF : 0;
+            int sum = (iv[i] & 0xFF) + add + carry;
+            counter[i] = (byte) sum;
+            carry = sum >>> 8;
+        }
+    }
+
+    static void increment(byte[] counter) {
+        for (int i = 15; i >= 0; i--)
+            if (++counter[i] != 0)
+                break;
+    }
+}
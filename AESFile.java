@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+// File encryption over memory-mapped windows. Files are encrypted in CTR mode,
+// so every segment of a window is independent: AESCTR splits the window
+// across threads and XORs the keystream from the mapped input straight into
+// the mapped output. Windows keep each mapping under the 2 GB buffer limit.
+//
+// Encrypted files are a 16-byte random IV followed by the ciphertext, which is
+// as long as the plaintext.
+public final class AESFile {
+
+    public static final int HEADER_SIZE = 16;
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private AESFile() {
+    }
+
+    public static long encrypt(Path in, Path out, AES.KeySchedule schedule) throws IOException {
+        checkDistinct(in, out);
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = openOutput(out)) {
+            dst.write(ByteBuffer.wrap(iv), 0);
+            long len = src.size();
+            transform(src, 0, dst, HEADER_SIZE, len, new AESCTR(schedule, iv), DEFAULT_WINDOW_SIZE);
+            return len;
+        }
+    }
+
+    public static long decrypt(Path in, Path out, AES.KeySchedule schedule) throws IOException {
+        checkDistinct(in, out);
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = openOutput(out)) {
+            long len = src.size() - HEADER_SIZE;
+            if (len < 0)
+                throw new IOException(in + ": missing header");
+            ByteBuffer iv = ByteBuffer.allocate(16);
+            while (iv.hasRemaining())
+                if (src.read(iv, iv.position()) < 0)
+                    throw new IOException(in + ": truncated header");
+            transform(src, HEADER_SIZE, dst, 0, len, new AESCTR(schedule, iv.array()), DEFAULT_WINDOW_SIZE);
+            return len;
+        }
+    }
+
+    // Transforms len bytes at srcPos into dst at dstPos; byte i uses keystream
+    // offset i. windowSize must be a multiple of 16.
+    public static void transform(FileChannel src, long srcPos, FileChannel dst, long dstPos, long len, AESCTR ctr,
+                                 int windowSize) throws IOException {
+        if ((windowSize & 15) != 0 || windowSize <= 0)
+            throw new IllegalArgumentException("window size must be a positive multiple of 16");
+        for (long done = 0; done < len; done += windowSize) {
+            int n = (int) Math.min(windowSize, len - done);
+            MappedByteBuffer in = src.map(FileChannel.MapMode.READ_ONLY, srcPos + done, n);
+            MappedByteBuffer out = dst.map(FileChannel.MapMode.READ_WRITE, dstPos + done, n);
+            ctr.process(in, 0, out, 0, n, done);
+        }
+    }
+
+    // The output is truncated before the input is read, so the two must differ
+    private static void checkDistinct(Path in, Path out) throws IOException {
+        if (Files.exists(out) && Files.isSameFile(in, out))
+            throw new IOException(in + " and " + out + " are the same file");
+    }
+
+    private static FileChannel openOutput(Path out) throws IOException {
+        return FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // encrypt|decrypt <key file> <input> <output>. The key file holds the key
+    // as 32, 48 or 64 hex digits; "-" reads it from standard input. The key is
+    // never taken from the command line, where ps and shell history show it.
+    static int run(String[] args) {
+        if (args.length != 4 || !(args[0].equals("encrypt") || args[0].equals("decrypt"))) {
+            System.err.println("usage: java AES encrypt|decrypt <key file | -> <input> <output>");
+            return 2;
+        }
+        byte[] key;
+        try {
+            key = readKey(args[1]);
+        } catch (IOException e) {
+            System.err.println("cannot read key: " + e);
+            return 1;
+        }
+        AES.KeySize size = null;
+        for (AES.KeySize s : AES.KeySize.values())
+            if (key != null && s.value == key.length)
+                size = s;
+        if (size == null) {
+            System.err.println("key must be 16, 24 or 32 bytes of hex");
+            return AES.ERROR_AES_UNKNOWN_KEYSIZE;
+        }
+
+        AES.KeySchedule schedule = new AES.KeySchedule(key, size);
+        Arrays.fill(key, (byte) 0);
+        try {
+            long start = System.nanoTime();
+            long bytes = args[0].equals("encrypt")
+                ? encrypt(Paths.get(args[2]), Paths.get(args[3]), schedule)
+                : decrypt(Paths.get(args[2]), Paths.get(args[3]), schedule);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s %d bytes in %.3f s: %.1f MB/s%n", args[0] + "ed", bytes, seconds,
+                bytes / 1e6 / seconds);
+            return AES.SUCCESS;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    private static byte[] readKey(String file) throws IOException {
+        byte[] text = file.equals("-") ? System.in.readAllBytes() : Files.readAllBytes(Paths.get(file));
+        try {
+            return parseHex(text);
+        } finally {
+            Arrays.fill(text, (byte) 0);
+        }
+    }
+
+    // Hex digits with surrounding whitespace; null if anything else
+    private static byte[] parseHex(byte[] text) {
+        int from = 0;
+        int to = text.length;
+        while (from < to && Character.isWhitespace(text[from]))
+            from++;
+        while (to > from && Character.isWhitespace(text[to - 1]))
+            to--;
+        if (((to - from) & 1) != 0)
+            return null;
+        byte[] b = new byte[(to - from) / 2];
+        for (int i = 0; i < b.length; i++) {
+            int hi = Character.digit(text[from + 2 * i], 16);
+            int lo = Character.digit(text[from + 2 * i + 1], 16);
+            if (hi < 0 || lo < 0) {
+                Arrays.fill(b, (byte) 0);
+                return null;
+            }
+            b[i] = (byte) ((hi << 4) | lo);
+        }
+        return b;
+    }
+}
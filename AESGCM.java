@@ -0,0 +1,296 @@
+// Galois/Counter Mode (NIST SP 800-38D). GHASH multiplies by the hash subkey H
+// with Shoup's 4-bit method: 16 multiples of H are precomputed per key, so a
+// block costs 32 table lookups instead of 128 shift-and-add steps.
+//
+// One instance per key; init() starts a message and is cheap (one block
+// encryption, no allocation). An instance handles one message at a time.
+// Streaming decryption releases plaintext before the tag is checked, so callers
+// must discard it when finish() returns ERROR_AES_AUTH_FAILED. The one-shot
+// decrypt() checks the tag first and writes nothing on failure.
+public final class AESGCM {
+
+    // x^4 reduction terms for the 4 bits shifted out of the low end
+    private static final long[] REM_4BIT = {
+        0x0000L << 48, 0x1C20L << 48, 0x3840L << 48, 0x2460L << 48,
+        0x7080L << 48, 0x6CA0L << 48, 0x48C0L << 48, 0x54E0L << 48,
+        0xE100L << 48, 0xFD20L << 48, 0xD940L << 48, 0xC560L << 48,
+        0x9180L << 48, 0x8DA0L << 48, 0xA9C0L << 48, 0xB5E0L << 48
+    };
+
+    // SP 800-38D: at most 2^32 - 2 blocks of text per message. Past that the
+    // 32-bit counter wraps to J0 and the keystream repeats the tag mask.
+    static final long MAX_TEXT_LENGTH = ((1L << 32) - 2) * 16;
+
+    private final AES.KeySchedule schedule;
+    private final AES.Engine engine;
+    private final long[] hHi = new long[16];
+    private final long[] hLo = new long[16];
+
+    private final byte[] counter = new byte[16];
+    private final byte[] tagMask = new byte[16];
+    private final byte[] keyStream = new byte[16];
+    private final byte[] pending = new byte[16];
+    private boolean encrypt;
+    private int tagLength;
+    private int keyStreamPos;
+    private int pendingLen;
+    private long xHi, xLo;
+    private long aadLength, textLength;
+    private boolean inText;
+    private boolean active;
+    private long startNanos;
+
+    public AESGCM(AES.KeySchedule schedule) {
+        this(schedule, AES.Engine.TTABLE);
+    }
+
+    public AESGCM(AES.KeySchedule schedule, AES.Engine engine) {
+        this.schedule = schedule;
+        this.engine = engine;
+
+        byte[] h = new byte[16];
+        engine.encryptBlock(schedule, h, 0, h, 0);
+        long vHi = getLong(h, 0), vLo = getLong(h, 8);
+        // hTable[8] = H, hTable[4] = H.x, hTable[2] = H.x^2, hTable[1] = H.x^3
+        hHi[8] = vHi;
+        hLo[8] = vLo;
+        for (int i = 4; i > 0; i >>= 1) {
+            long t = 0xE100000000000000L & -(vLo & 1);
+            vLo = (vHi << 63) | (vLo >>> 1);
+            vHi = (vHi >>> 1) ^ t;
+            hHi[i] = vHi;
+            hLo[i] = vLo;
+        }
+        for (int i = 2; i < 16; i <<= 1) {
+            for (int j = 1; j < i; j++) {
+                hHi[i + j] = hHi[i] ^ hHi[j];
+                hLo[i + j] = hLo[i] ^ hLo[j];
+            }
+        }
+    }
+
+    // tagLength in bytes: 4, 8 or 12..16
+    public void init(boolean encrypt, byte[] iv, int tagLength) {
+        if (tagLength != 4 && tagLength != 8 && (tagLength < 12 || tagLength > 16))
+            throw new IllegalArgumentException("illegal tag length " + tagLength);
+        if (iv.length == 0)
+            throw new IllegalArgumentException("empty iv");
+        if (AESMetrics.ENABLED)
+            startNanos = System.nanoTime();
+        this.encrypt = encrypt;
+        this.tagLength = tagLength;
+        xHi = xLo = 0;
+        pendingLen = 0;
+        aadLength = textLength = 0;
+        inText = false;
+
+        if (iv.length == 12) {
+            System.arraycopy(iv, 0, counter, 0, 12);
+            counter[12] = counter[13] = counter[14] = 0;
+            counter[15] = 1;
+        } else {
+            ghash(iv, 0, iv.length);
+            flushPending();
+            xLo ^= (long) iv.length << 3;
+            multiplyH();
+            putLong(xHi, counter, 0);
+            putLong(xLo, counter, 8);
+            xHi = xLo = 0;
+        }
+        engine.encryptBlock(schedule, counter, 0, tagMask, 0);
+        keyStreamPos = 16;
+        active = true;
+    }
+
+    public void updateAAD(byte[] aad, int off, int len) {
+        if (!active || inText)
+            throw new IllegalStateException("AAD must come before any text");
+        ghash(aad, off, len);
+        aadLength += len;
+    }
+
+    // Returns the number of bytes written to out, always len. Throws once the
+    // message would pass MAX_TEXT_LENGTH, before writing anything.
+    public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (!active)
+            throw new IllegalStateException("init() not called");
+        if (!inText) {
+            flushPending();
+            inText = true;
+        }
+        if (len > MAX_TEXT_LENGTH - textLength)
+            throw new IllegalArgumentException("message longer than 2^32 - 2 blocks");
+        textLength += len;
+        int done = 0;
+        while (done < len) {
+            if (keyStreamPos == 16 && len - done >= 16) {
+                // whole block, keystream and GHASH both aligned
+                nextKeyStream();
+                if (!encrypt)
+                    ghashBlock(in, inOff + done);
+                for (int i = 0; i < 16; i++)
+                    out[outOff + done + i] = (byte) (in[inOff + done + i] ^ keyStream[i]);
+                if (encrypt)
+                    ghashBlock(out, outOff + done);
+                keyStreamPos = 16;
+                done += 16;
+                continue;
+            }
+            if (keyStreamPos == 16)
+                nextKeyStream();
+            byte c = encrypt ? (byte) (in[inOff + done] ^ keyStream[keyStreamPos]) : in[inOff + done];
+            out[outOff + done] = (byte) (in[inOff + done] ^ keyStream[keyStreamPos]);
+            keyStreamPos++;
+            pending[pendingLen++] = c;
+            if (pendingLen == 16) {
+                ghashBlock(pending, 0);
+                pendingLen = 0;
+            }
+            done++;
+        }
+        return len;
+    }
+
+    // Encryption writes the tag to tag[tagOff..]; decryption compares it in
+    // constant time and returns SUCCESS or ERROR_AES_AUTH_FAILED.
+    public int finish(byte[] tag, int tagOff) {
+        if (!active)
+            throw new IllegalStateException("init() not called");
+        int code = computeTag(tag, tagOff);
+        // latency runs from init()
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(encrypt ? AESMetrics.Operation.GCM_ENCRYPT : AESMetrics.Operation.GCM_DECRYPT,
+                schedule.size, textLength, startNanos, code);
+        return code;
+    }
+
+    private int computeTag(byte[] tag, int tagOff) {
+        active = false;
+        flushPending();
+        xHi ^= aadLength << 3;
+        xLo ^= textLength << 3;
+        multiplyH();
+
+        long sHi = xHi, sLo = xLo;
+        xHi = xLo = 0;
+        int diff = 0;
+        for (int i = 0; i < tagLength; i++) {
+            long word = i < 8 ? sHi : sLo;
+            byte t = (byte) ((word >>> (56 - 8 * (i & 7))) ^ tagMask[i]);
+            if (encrypt)
+                tag[tagOff + i] = t;
+            else
+                diff |= t ^ tag[tagOff + i];
+        }
+        return diff == 0 ? AES.SUCCESS : AES.ERROR_AES_AUTH_FAILED;
+    }
+
+    // One-shot helpers; out receives the ciphertext or plaintext, tag the tag
+    public int encrypt(byte[] iv, byte[] aad, byte[] in, int inOff, int len, byte[] out, int outOff, byte[] tag) {
+        init(true, iv, tag.length);
+        if (aad != null)
+            updateAAD(aad, 0, aad.length);
+        update(in, inOff, len, out, outOff);
+        return finish(tag, 0);
+    }
+
+    // The whole ciphertext is at hand, so it is authenticated first and only
+    // decrypted into out when the tag matches
+    public int decrypt(byte[] iv, byte[] aad, byte[] in, int inOff, int len, byte[] out, int outOff, byte[] tag) {
+        init(false, iv, tag.length);
+        if (aad != null)
+            updateAAD(aad, 0, aad.length);
+        flushPending();
+        inText = true;
+        ghash(in, inOff, len);
+        textLength = len;
+        int code = computeTag(tag, 0);
+        if (code == AES.SUCCESS) {
+            // the counter is still at J0: no keystream has been drawn yet
+            for (int done = 0; done < len; done += 16) {
+                nextKeyStream();
+                int n = Math.min(16, len - done);
+                for (int i = 0; i < n; i++)
+                    out[outOff + done + i] = (byte) (in[inOff + done + i] ^ keyStream[i]);
+            }
+        }
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.GCM_DECRYPT, schedule.size, len, startNanos, code);
+        return code;
+    }
+
+    private void nextKeyStream() {
+        // inc32: only the low 32 bits of the counter wrap
+        for (int i = 15; i >= 12; i--)
+            if (++counter[i] != 0)
+                break;
+        engine.encryptBlock(schedule, counter, 0, keyStream, 0);
+        keyStreamPos = 0;
+    }
+
+    private void ghash(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (pendingLen == 0 && len >= 16) {
+                ghashBlock(b, off);
+                off += 16;
+                len -= 16;
+                continue;
+            }
+            pending[pendingLen++] = b[off++];
+            len--;
+            if (pendingLen == 16) {
+                ghashBlock(pending, 0);
+                pendingLen = 0;
+            }
+        }
+    }
+
+    private void flushPending() {
+        if (pendingLen > 0) {
+            for (int i = pendingLen; i < 16; i++)
+                pending[i] = 0;
+            ghashBlock(pending, 0);
+            pendingLen = 0;
+        }
+    }
+
+    private void ghashBlock(byte[] b, int off) {
+        xHi ^= getLong(b, off);
+        xLo ^= getLong(b, off + 8);
+        multiplyH();
+    }
+
+    // X = X * H, consuming X four bits at a time from the last byte backwards
+    private void multiplyH() {
+        long zHi = 0, zLo = 0;
+        for (int i = 15; i >= 0; i--) {
+            int b = (int) ((i < 8 ? xHi : xLo) >>> (56 - 8 * (i & 7))) & 0xFF;
+            for (int shift = 0; shift <= 4; shift += 4) {
+                int nibble = (b >>> shift) & 0xF;
+                if (i != 15 || shift != 0) {
+                    int rem = (int) zLo & 0xF;
+                    zLo = (zHi << 60) | (zLo >>> 4);
+                    zHi = (zHi >>> 4) ^ REM_4BIT[rem];
+                }
+                zHi ^= hHi[nibble];
+                zLo ^= hLo[nibble];
+            }
+        }
+        xHi = zHi;
+        xLo = zLo;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    private static void putLong(long v, byte[] b, int off) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+}
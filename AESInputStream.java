@@ -0,0 +1,119 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Decrypts (or encrypts) the underlying stream as it is read. Input is read
+// a buffer at a time and transformed in one batch; memory use is fixed by
+// the buffer size. At end of input the final block is processed and its
+// padding removed; a bad padding block surfaces as an IOException.
+public class AESInputStream extends FilterInputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final AESStreamCipher cipher;
+    private final byte[] inBuf;
+    private final byte[] outBuf;
+    private int outPos;
+    private int outLen;
+    private boolean eof;
+    private boolean closed;
+
+    public AESInputStream(InputStream in, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt, byte[] iv) {
+        this(in, schedule, mode, encrypt, iv, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AESInputStream(InputStream in, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt, byte[] iv,
+                          int bufferSize) {
+        super(in);
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("buffer size must be at least 16 bytes");
+        this.cipher = new AESStreamCipher(schedule, mode, encrypt, iv);
+        this.inBuf = new byte[bufferSize];
+        this.outBuf = new byte[AESStreamCipher.maxUpdateOutput(bufferSize)];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return outBuf[outPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int n = Math.min(len, outLen - outPos);
+        System.arraycopy(outBuf, outPos, b, off, n);
+        outPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int k = (int) Math.min(n - skipped, outLen - outPos);
+            outPos += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return outLen - outPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        in.close();
+    }
+
+    // Returns false once everything, including the final block, was consumed
+    private boolean fill() throws IOException {
+        ensureOpen();
+        while (outPos == outLen) {
+            if (eof)
+                return false;
+            outPos = 0;
+            int n = in.read(inBuf, 0, inBuf.length);
+            try {
+                if (n < 0) {
+                    eof = true;
+                    outLen = cipher.doFinal(outBuf, 0);
+                } else {
+                    outLen = cipher.update(inBuf, 0, n, outBuf, 0);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("stream closed");
+    }
+}
@@ -0,0 +1,236 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded cache of expanded key schedules, keyed by the raw key bytes.
+// Lookups are lock-free reads of a ConcurrentHashMap with a per-thread probe
+// key, so a hit allocates nothing. Eviction is CLOCK (second chance), an LRU
+// approximation: a hit marks the entry referenced, and inserting threads
+// sweep a lock-free FIFO, giving referenced entries another round and
+// evicting the rest.
+//
+// Evicted entries are zeroed (key copy and schedule) as soon as the last
+// thread using them releases them, so a schedule is never wiped mid-use.
+// For that a hit pins the entry and release() unpins it: one atomic add each
+// on the pin counter stripe picked by the thread id. Stripes sit on separate
+// cache lines, so threads contend only when they share a stripe (more threads
+// than stripes).
+//
+// The shared instance backs AES.aesEncrypt/aesDecrypt(.., byte[] key, ..).
+// Its size comes from -Daes.keyCache.size (default 1024, 0 disables it).
+public final class AESKeyCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static volatile AESKeyCache shared = create(Integer.getInteger("aes.keyCache.size", DEFAULT_MAXIMUM_SIZE));
+
+    private final int maximumSize;
+    private final ConcurrentHashMap<Key, Entry> map = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ThreadLocal<Key> probe = ThreadLocal.withInitial(Key::new);
+
+    public AESKeyCache(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximum size must be positive");
+        this.maximumSize = maximumSize;
+    }
+
+    private static AESKeyCache create(int maximumSize) {
+        return maximumSize > 0 ? new AESKeyCache(maximumSize) : null;
+    }
+
+    // null when caching is disabled
+    public static AESKeyCache shared() {
+        return shared;
+    }
+
+    // Replaces the shared cache (null disables it); the old one is cleared
+    public static void setShared(AESKeyCache cache) {
+        AESKeyCache old = shared;
+        shared = cache;
+        if (old != null && old != cache)
+            old.clear();
+    }
+
+    // Returns a pinned entry for key; the caller must release() it after use
+    public Entry acquire(byte[] key, AES.KeySize size) {
+        Key k = probe.get();
+        k.set(key, size);
+        Entry entry = map.get(k);
+        k.bytes = null;
+        if (entry != null && entry.pin()) {
+            if (!entry.referenced)
+                entry.referenced = true;
+            hits.increment();
+            return entry;
+        }
+
+        misses.increment();
+        Entry created = new Entry(new Key(Arrays.copyOf(key, size.value), size));
+        created.pin();
+        entry = map.putIfAbsent(created.key, created);
+        if (entry == null) {
+            clock.offer(created);
+            if (count.incrementAndGet() > maximumSize)
+                evict();
+            return created;
+        }
+        // Lost a race or found an entry being evicted: use ours uncached
+        created.retire();
+        return created;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    // Evicts and zeroes every entry
+    public void clear() {
+        Entry entry;
+        while ((entry = clock.poll()) != null)
+            remove(entry);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AESKeyCache[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+            size(), maximumSize, hitCount(), missCount(), evictionCount());
+    }
+
+    private void evict() {
+        while (count.get() > maximumSize) {
+            Entry entry = clock.poll();
+            if (entry == null)
+                return;
+            if (entry.referenced) {
+                entry.referenced = false;
+                clock.offer(entry);
+            } else {
+                remove(entry);
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (map.remove(entry.key, entry)) {
+            count.decrementAndGet();
+            evictions.increment();
+            entry.retire();
+        }
+    }
+
+    // Immutable once in the map; the per-thread probe is reset for every lookup
+    private static final class Key {
+        byte[] bytes;
+        AES.KeySize size;
+        int hash;
+
+        Key() {
+        }
+
+        Key(byte[] bytes, AES.KeySize size) {
+            set(bytes, size);
+        }
+
+        void set(byte[] bytes, AES.KeySize size) {
+            this.bytes = bytes;
+            this.size = size;
+            int h = size.ordinal();
+            for (int i = 0; i < size.value; i++)
+                h = 31 * h + bytes[i];
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return size == k.size && Arrays.equals(bytes, 0, size.value, k.bytes, 0, size.value);
+        }
+    }
+
+    public static final class Entry {
+        // Pin count stripes, 16 ints (64 bytes) apart. Only their sum means
+        // anything; one stripe can go negative if another thread releases.
+        private static final int STRIPES = Math.min(8,
+            Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1));
+        private static final int PAD = 16;
+
+        public final AES.KeySchedule schedule;
+        final Key key;
+        private final AtomicIntegerArray pins = new AtomicIntegerArray(STRIPES * PAD);
+        private final AtomicBoolean wiped = new AtomicBoolean();
+        private volatile boolean retired;
+        volatile boolean referenced;
+
+        Entry(Key key) {
+            this.key = key;
+            this.schedule = new AES.KeySchedule(key.bytes, key.size);
+        }
+
+        private static int stripe() {
+            return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+        }
+
+        // The pin is published before retired is read and retire() sets retired
+        // before summing the pins, so either the pin fails or the sum sees it
+        boolean pin() {
+            pins.getAndIncrement(stripe());
+            if (!retired)
+                return true;
+            release();
+            return false;
+        }
+
+        public void release() {
+            pins.getAndDecrement(stripe());
+            if (retired)
+                tryWipe();
+        }
+
+        void retire() {
+            retired = true;
+            tryWipe();
+        }
+
+        private void tryWipe() {
+            int sum = 0;
+            for (int i = 0; i < STRIPES; i++)
+                sum += pins.get(i * PAD);
+            if (sum == 0 && wiped.compareAndSet(false, true)) {
+                schedule.destroy();
+                Arrays.fill(key.bytes, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Operation counters and latency histograms for the cipher, per operation
+// and key size, plus a count of every return code handed to callers.
+//
+// Off unless the JVM runs with -Daes.metrics=true. ENABLED is a static final,
+// so with metrics off the JIT folds every "if (AESMetrics.ENABLED)" at the
+// call sites away and not even System.nanoTime() is called.
+//
+// When on, the data is published as the platform MXBean "AES:type=Metrics"
+// and every operation is also passed to the listener, if one is set.
+// Latencies go into log-linear histograms in the style of HdrHistogram:
+// exact below 32 ns, then 16 buckets per power of two (within 6.25%).
+public final class AESMetrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("aes.metrics");
+    public static final String OBJECT_NAME = "AES:type=Metrics";
+
+    public enum Operation {
+        KEY_EXPANSION,
+        BLOCK_ENCRYPT, BLOCK_DECRYPT,
+        ECB_ENCRYPT, ECB_DECRYPT,
+        CBC_ENCRYPT, CBC_DECRYPT,
+        CFB_ENCRYPT, CFB_DECRYPT,
+        OFB_ENCRYPT, OFB_DECRYPT,
+        CTR,
+        GCM_ENCRYPT, GCM_DECRYPT,
+        XTS_ENCRYPT, XTS_DECRYPT;
+
+        private static final Operation[] MODES = new Operation[2 * AESModes.Mode.values().length];
+
+        static {
+            for (AESModes.Mode mode : AESModes.Mode.values()) {
+                boolean ctr = mode == AESModes.Mode.CTR;
+                MODES[2 * mode.ordinal()] = ctr ? CTR : valueOf(mode.name() + "_ENCRYPT");
+                MODES[2 * mode.ordinal() + 1] = ctr ? CTR : valueOf(mode.name() + "_DECRYPT");
+            }
+        }
+
+        public static Operation of(AESModes.Mode mode, boolean encrypt) {
+            return MODES[2 * mode.ordinal() + (encrypt ? 0 : 1)];
+        }
+    }
+
+    // Called on the thread that ran the operation; must be fast and must not throw.
+    // size is null when the caller passed no key size.
+    public interface Listener {
+        void operation(Operation op, AES.KeySize size, long bytes, long nanos, int code);
+    }
+
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        long getKeyExpansions();
+
+        long getBytesProcessed();
+
+        Map<String, Long> getReturnCodes();
+
+        // One line per operation and key size seen: count, bytes and latency percentiles
+        List<String> getOperations();
+
+        void reset();
+    }
+
+    private static final String[] CODE_NAMES = {
+        "SUCCESS", "ERROR_AES_UNKNOWN_KEYSIZE", "ERROR_MEMORY_ALLOCATION_FAILED", "ERROR_AES_AUTH_FAILED"
+    };
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final AES.KeySize[] SIZES = AES.KeySize.values();
+
+    private static final AtomicReferenceArray<Stats> stats = new AtomicReferenceArray<>(OPERATIONS.length * SIZES.length);
+    private static final LongAdder[] codes = new LongAdder[CODE_NAMES.length + 1];
+    private static volatile Listener listener;
+
+    static {
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = new LongAdder();
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+            } catch (Exception | LinkageError e) {
+                // no JMX (or already registered by another class loader): counters still work
+            }
+        }
+    }
+
+    private AESMetrics() {
+    }
+
+    // null removes the listener
+    public static void setListener(Listener l) {
+        listener = l;
+    }
+
+    // Call sites guard with ENABLED and pass System.nanoTime() from before the operation
+    static void record(Operation op, AES.KeySize size, long bytes, long startNanos, int code) {
+        long nanos = System.nanoTime() - startNanos;
+        codes[code >= 0 && code < CODE_NAMES.length ? code : CODE_NAMES.length].increment();
+        if (size != null) {
+            Stats s = stats(op, size);
+            s.count.increment();
+            s.bytes.add(bytes);
+            s.latency.record(nanos);
+        }
+        Listener l = listener;
+        if (l != null)
+            l.operation(op, size, bytes, nanos, code);
+    }
+
+    private static Stats stats(Operation op, AES.KeySize size) {
+        int i = op.ordinal() * SIZES.length + size.ordinal();
+        Stats s = stats.get(i);
+        if (s == null && !stats.compareAndSet(i, null, s = new Stats()))
+            s = stats.get(i);
+        return s;
+    }
+
+    public static long count(Operation op, AES.KeySize size) {
+        Stats s = stats.get(op.ordinal() * SIZES.length + size.ordinal());
+        return s == null ? 0 : s.count.sum();
+    }
+
+    public static long bytes(Operation op, AES.KeySize size) {
+        Stats s = stats.get(op.ordinal() * SIZES.length + size.ordinal());
+        return s == null ? 0 : s.bytes.sum();
+    }
+
+    // Latency at percentile p (0..100) in nanoseconds, 0 when nothing was recorded
+    public static long latencyNanos(Operation op, AES.KeySize size, double p) {
+        Stats s = stats.get(op.ordinal() * SIZES.length + size.ordinal());
+        return s == null ? 0 : s.latency.valueAtPercentile(p);
+    }
+
+    // How often code was returned (codes outside the known range share one counter)
+    public static long returnCodeCount(int code) {
+        return codes[code >= 0 && code < CODE_NAMES.length ? code : CODE_NAMES.length].sum();
+    }
+
+    public static void reset() {
+        for (int i = 0; i < stats.length(); i++)
+            stats.set(i, null);
+        for (LongAdder c : codes)
+            c.reset();
+    }
+
+    private static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final Histogram latency = new Histogram();
+    }
+
+    // Counts are striped by thread id so threads recording at once mostly hit
+    // different arrays; readers merge the stripes.
+    static final class Histogram {
+        private static final int LINEAR = 32;
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        // highest exponent of a positive long is 62
+        private static final int BUCKETS = LINEAR + (62 - SUB_BITS) * SUB;
+        private static final int STRIPES = Math.min(8,
+            Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1));
+
+        // allocated on first use, so idle threads' stripes cost nothing
+        private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+        void record(long value) {
+            int i = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            AtomicLongArray counts = stripes.get(i);
+            if (counts == null && !stripes.compareAndSet(i, null, counts = new AtomicLongArray(BUCKETS)))
+                counts = stripes.get(i);
+            counts.incrementAndGet(index(Math.max(0, value)));
+        }
+
+        static int index(long v) {
+            if (v < LINEAR)
+                return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+            return LINEAR + (e - SUB_BITS - 1) * SUB + sub;
+        }
+
+        // Largest value that falls into bucket i
+        static long highestValue(int i) {
+            if (i < LINEAR)
+                return i;
+            int e = (i - LINEAR) / SUB + SUB_BITS + 1;
+            int sub = (i - LINEAR) % SUB;
+            return ((long) (SUB + sub) << (e - SUB_BITS)) + (1L << (e - SUB_BITS)) - 1;
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int s = 0; s < STRIPES; s++) {
+                AtomicLongArray stripe = stripes.get(s);
+                if (stripe != null)
+                    for (int i = 0; i < BUCKETS; i++)
+                        counts[i] += stripe.get(i);
+            }
+            return counts;
+        }
+
+        long count() {
+            long total = 0;
+            for (long c : snapshot())
+                total += c;
+            return total;
+        }
+
+        long valueAtPercentile(double p) {
+            long[] counts = snapshot();
+            long total = 0;
+            for (long c : counts)
+                total += c;
+            if (total == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return highestValue(i);
+            }
+            return highestValue(BUCKETS - 1);
+        }
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        public long getKeyExpansions() {
+            long n = 0;
+            for (AES.KeySize size : SIZES)
+                n += count(Operation.KEY_EXPANSION, size);
+            return n;
+        }
+
+        public long getBytesProcessed() {
+            long n = 0;
+            for (Operation op : OPERATIONS)
+                if (op != Operation.KEY_EXPANSION)
+                    for (AES.KeySize size : SIZES)
+                        n += bytes(op, size);
+            return n;
+        }
+
+        public Map<String, Long> getReturnCodes() {
+            Map<String, Long> m = new LinkedHashMap<>();
+            for (int i = 0; i < CODE_NAMES.length; i++)
+                m.put(CODE_NAMES[i], codes[i].sum());
+            m.put("OTHER", codes[CODE_NAMES.length].sum());
+            return m;
+        }
+
+        public List<String> getOperations() {
+            List<String> lines = new ArrayList<>();
+            for (Operation op : OPERATIONS) {
+                for (AES.KeySize size : SIZES) {
+                    Stats s = stats.get(op.ordinal() * SIZES.length + size.ordinal());
+                    if (s == null)
+                        continue;
+                    lines.add(String.format("%s/%d count=%d bytes=%d p50=%dns p99=%dns p99.9=%dns max=%dns",
+                        op, size.value * 8, s.count.sum(), s.bytes.sum(), s.latency.valueAtPercentile(50),
+                        s.latency.valueAtPercentile(99), s.latency.valueAtPercentile(99.9),
+                        s.latency.valueAtPercentile(100)));
+                }
+            }
+            return lines;
+        }
+
+        public void reset() {
+            AESMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// ECB, CBC, CFB (128-bit feedback), OFB and CTR over arbitrary-length input,
+// with optional PKCS#7 padding. Every CBC plaintext block depends only on two
+// ciphertext blocks, so CBC decryption (like ECB) decrypts many blocks in a
+// batch and splits large inputs across an executor. CBC, CFB and OFB
+// encryption are inherently serial; CTR is handed to AESCTR.
+public final class AESModes {
+
+    public enum Mode { ECB, CBC, CFB, OFB, CTR }
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    // Blocks decrypted per batch before the CBC XOR pass
+    private static final int BATCH_BLOCKS = 64;
+
+    // Chain, next chain and one batch, per thread, for overlapping CBC decryption
+    private static final ThreadLocal<byte[]> cbcScratch = ThreadLocal.withInitial(() -> new byte[32 + BATCH_BLOCKS * 16]);
+
+    private final AES.KeySchedule schedule;
+    private final AES.Engine engine;
+    private final Executor executor;
+    private final int chunkSize;
+
+    public AESModes(AES.KeySchedule schedule) {
+        this(schedule, AES.Engine.TTABLE, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    // A null executor processes everything on the calling thread
+    public AESModes(AES.KeySchedule schedule, AES.Engine engine, Executor executor, int chunkSize) {
+        if (chunkSize < 16)
+            throw new IllegalArgumentException("chunk size must be at least 16 bytes");
+        this.schedule = schedule;
+        this.engine = engine;
+        this.executor = executor;
+        this.chunkSize = chunkSize & ~15;
+    }
+
+    public static int outputSize(int len, boolean pad) {
+        return pad ? (len & ~15) + 16 : len;
+    }
+
+    // Returns the number of bytes written: outputSize(len, pad). Without
+    // padding ECB and CBC need a multiple of 16 bytes; CFB, OFB and CTR take any length.
+    // in and out may be the same range or overlap in any other way; a partial
+    // overlap costs a copy of the input.
+    public int encrypt(Mode mode, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff, boolean pad) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        int n = doEncrypt(mode, iv, in, inOff, len, out, outOff, pad);
+        // CTR is counted by AESCTR
+        if (AESMetrics.ENABLED && mode != Mode.CTR)
+            AESMetrics.record(AESMetrics.Operation.of(mode, true), schedule.size, len, start, AES.SUCCESS);
+        return n;
+    }
+
+    // Returns the number of plaintext bytes written, after removing padding.
+    // Overlap is handled as for encrypt.
+    public int decrypt(Mode mode, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff, boolean pad) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        int n = doDecrypt(mode, iv, in, inOff, len, out, outOff, pad);
+        if (AESMetrics.ENABLED && mode != Mode.CTR)
+            AESMetrics.record(AESMetrics.Operation.of(mode, false), schedule.size, len, start, AES.SUCCESS);
+        return n;
+    }
+
+    private int doEncrypt(Mode mode, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff, boolean pad) {
+        checkIv(mode, iv);
+        int full = len & ~15;
+        int tail = len - full;
+        if (!pad && tail != 0 && (mode == Mode.ECB || mode == Mode.CBC))
+            throw new IllegalArgumentException("input is not a multiple of 16 bytes");
+        if (AESParallel.partialOverlap(in, inOff, out, outOff, outputSize(len, pad))) {
+            in = Arrays.copyOfRange(in, inOff, inOff + len);
+            inOff = 0;
+        }
+
+        // Copy the tail first: with in == out the padded block would overwrite it
+        byte[] last = null;
+        if (pad) {
+            last = new byte[16];
+            System.arraycopy(in, inOff + full, last, 0, tail);
+            for (int i = tail; i < 16; i++)
+                last[i] = (byte) (16 - tail);
+        }
+
+        byte[] feedback = iv == null ? null : iv.clone();
+        switch (mode) {
+            case ECB:
+                parallel(in, inOff, out, outOff, full, true);
+                if (pad)
+                    engine.encryptBlock(schedule, last, 0, out, outOff + full);
+                break;
+            case CBC:
+                for (int i = 0; i < full; i += 16)
+                    cbcEncryptBlock(in, inOff + i, out, outOff + i, feedback);
+                if (pad)
+                    cbcEncryptBlock(last, 0, out, outOff + full, feedback);
+                break;
+            case CFB:
+            case OFB:
+                stream(mode, true, feedback, in, inOff, out, outOff, pad ? full : len);
+                if (pad)
+                    stream(mode, true, feedback, last, 0, out, outOff + full, 16);
+                break;
+            case CTR:
+                AESCTR ctr = counterMode(iv);
+                ctr.process(in, inOff, out, outOff, pad ? full : len, 0);
+                if (pad)
+                    ctr.process(last, 0, out, outOff + full, 16, full);
+                break;
+        }
+        return pad ? full + 16 : len;
+    }
+
+    private int doDecrypt(Mode mode, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff, boolean pad) {
+        checkIv(mode, iv);
+        if ((pad || mode == Mode.ECB || mode == Mode.CBC) && (len & 15) != 0)
+            throw new IllegalArgumentException("input is not a multiple of 16 bytes");
+        if (pad && len == 0)
+            throw new IllegalArgumentException("missing padding block");
+        if (AESParallel.partialOverlap(in, inOff, out, outOff, len)) {
+            in = Arrays.copyOfRange(in, inOff, inOff + len);
+            inOff = 0;
+        }
+
+        switch (mode) {
+            case ECB:
+                parallel(in, inOff, out, outOff, len, false);
+                break;
+            case CBC:
+                cbcDecrypt(iv, in, inOff, out, outOff, len);
+                break;
+            case CFB:
+            case OFB:
+                stream(mode, false, iv.clone(), in, inOff, out, outOff, len);
+                break;
+            case CTR:
+                counterMode(iv).process(in, inOff, out, outOff, len, 0);
+                break;
+        }
+        if (!pad)
+            return len;
+
+        int n = out[outOff + len - 1] & 0xFF;
+        int bad = (n == 0 || n > 16) ? 1 : 0;
+        for (int i = 1; i <= 16; i++)
+            if (i <= n)
+                bad |= (out[outOff + len - i] & 0xFF) ^ n;
+        if (bad != 0)
+            throw new IllegalArgumentException("bad padding");
+        return len - n;
+    }
+
+    private void checkIv(Mode mode, byte[] iv) {
+        if (mode != Mode.ECB && (iv == null || iv.length != 16))
+            throw new IllegalArgumentException("iv must be 16 bytes");
+    }
+
+    private AESCTR counterMode(byte[] iv) {
+        return new AESCTR(schedule, iv, engine, executor, chunkSize);
+    }
+
+    private void cbcEncryptBlock(byte[] in, int inOff, byte[] out, int outOff, byte[] feedback) {
+        for (int j = 0; j < 16; j++)
+            feedback[j] ^= in[inOff + j];
+        engine.encryptBlock(schedule, feedback, 0, feedback, 0);
+        System.arraycopy(feedback, 0, out, outOff, 16);
+    }
+
+    // CFB and OFB, one keystream block at a time; feedback carries the register
+    private void stream(Mode mode, boolean encrypt, byte[] feedback, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        byte[] keyStream = new byte[16];
+        for (int i = 0; i < len; i += 16) {
+            int n = Math.min(16, len - i);
+            engine.encryptBlock(schedule, feedback, 0, keyStream, 0);
+            for (int j = 0; j < n; j++) {
+                byte x = in[inOff + i + j];
+                byte y = (byte) (x ^ keyStream[j]);
+                out[outOff + i + j] = y;
+                if (mode == Mode.CFB)
+                    keyStream[j] = encrypt ? y : x;
+            }
+            System.arraycopy(keyStream, 0, feedback, 0, 16);
+        }
+    }
+
+    private void parallel(byte[] in, int inOff, byte[] out, int outOff, int len, boolean encrypt) {
+        AESParallel.forEachChunk(executor, len, chunkSize, (start, n) -> {
+            if (encrypt)
+                engine.encryptBlocks(schedule, in, inOff + start, out, outOff + start, n / 16);
+            else
+                engine.decryptBlocks(schedule, in, inOff + start, out, outOff + start, n / 16);
+        });
+    }
+
+    private void cbcDecrypt(byte[] iv, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        // The chaining block of every chunk is captured up front, since
+        // in-place decryption of one chunk overwrites its neighbour's input.
+        int chunks = Math.max(1, (len + chunkSize - 1) / chunkSize);
+        byte[] previous = new byte[16 * chunks];
+        System.arraycopy(iv, 0, previous, 0, 16);
+        for (int c = 1; c < chunks; c++)
+            System.arraycopy(in, inOff + c * chunkSize - 16, previous, 16 * c, 16);
+        AESParallel.forEachChunk(executor, len, chunkSize, (start, n) ->
+            cbcDecryptChunk(previous, 16 * (start / chunkSize), in, inOff + start, out, outOff + start, n));
+    }
+
+    // Block i chains on ciphertext block i - 1 (block 0 on previous). Walking
+    // backwards, an in-place call still sees the ciphertext it needs. Partial
+    // overlaps never get here: decrypt copies their input aside.
+    private void cbcDecryptChunk(byte[] previous, int prevOff, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        if (in != out || inOff + len <= outOff || outOff + len <= inOff) {
+            engine.decryptBlocks(schedule, in, inOff, out, outOff, len / 16);
+            for (int i = len - 1; i >= 16; i--)
+                out[outOff + i] ^= in[inOff + i - 16];
+            for (int j = 0; j < 16; j++)
+                out[outOff + j] ^= previous[prevOff + j];
+            return;
+        }
+        // In place: decrypt a batch aside, keeping the last ciphertext
+        // block of the batch as the next batch's chain
+        byte[] scratch = cbcScratch.get();
+        System.arraycopy(previous, prevOff, scratch, 0, 16);
+        for (int done = 0; done < len; done += BATCH_BLOCKS * 16) {
+            int n = Math.min(BATCH_BLOCKS * 16, len - done);
+            engine.decryptBlocks(schedule, in, inOff + done, scratch, 32, n / 16);
+            System.arraycopy(in, inOff + done + n - 16, scratch, 16, 16);
+            for (int i = n - 1; i >= 0; i--) {
+                byte c = i < 16 ? scratch[i] : in[inOff + done + i - 16];
+                out[outOff + done + i] = (byte) (scratch[32 + i] ^ c);
+            }
+            System.arraycopy(scratch, 16, scratch, 0, 16);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Encrypts (or decrypts) everything written to it before passing it on.
+// Writes are gathered into a fixed buffer and transformed a whole buffer at
+// a time; memory use is two buffers regardless of stream length. close()
+// writes the final, padded block and closes the underlying stream.
+public class AESOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final AESStreamCipher cipher;
+    private final byte[] inBuf;
+    private final byte[] outBuf;
+    private int inLen;
+    private boolean closed;
+
+    public AESOutputStream(OutputStream out, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt, byte[] iv) {
+        this(out, schedule, mode, encrypt, iv, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AESOutputStream(OutputStream out, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt, byte[] iv,
+                           int bufferSize) {
+        super(out);
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("buffer size must be at least 16 bytes");
+        this.cipher = new AESStreamCipher(schedule, mode, encrypt, iv);
+        this.inBuf = new byte[bufferSize];
+        this.outBuf = new byte[AESStreamCipher.maxUpdateOutput(bufferSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (inLen == inBuf.length)
+            drain();
+        inBuf[inLen++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (inLen == inBuf.length)
+                drain();
+            int n = Math.min(len, inBuf.length - inLen);
+            System.arraycopy(b, off, inBuf, inLen, n);
+            inLen += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Pushes all whole blocks downstream; a trailing partial block stays
+    // buffered until more data arrives or the stream is closed.
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            drain();
+            int n;
+            try {
+                n = cipher.doFinal(outBuf, 0);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            out.write(outBuf, 0, n);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        int n = cipher.update(inBuf, 0, inLen, outBuf, 0);
+        inLen = 0;
+        out.write(outBuf, 0, n);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("stream closed");
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// Chunked fan-out shared by the modes. Units [0, count) are cut into runs of
+// perChunk and handed to the executor; the caller runs the last run instead
+// of idling, then waits for the rest. A null executor runs every chunk in
+// order on the calling thread.
+final class AESParallel {
+
+    interface ChunkTask {
+        void run(int first, int count);
+    }
+
+    private AESParallel() {
+    }
+
+    static void forEachChunk(Executor executor, int count, int perChunk, ChunkTask task) {
+        if (executor == null || count <= perChunk) {
+            for (int first = 0; first < count; first += perChunk)
+                task.run(first, Math.min(perChunk, count - first));
+            return;
+        }
+        int chunks = (count + perChunk - 1) / perChunk;
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[chunks - 1];
+        for (int c = 0; c < chunks - 1; c++) {
+            int first = c * perChunk;
+            pending[c] = CompletableFuture.runAsync(() -> task.run(first, perChunk), executor);
+        }
+        int first = (chunks - 1) * perChunk;
+        task.run(first, count - first);
+        CompletableFuture.allOf(pending).join();
+    }
+
+    // True when out[outOff, outOff + len) and in[inOff, inOff + len) share
+    // bytes but do not start at the same index. Chunks and batches read input
+    // that an earlier one may already have overwritten, so callers copy the
+    // input aside first, as JCE's Cipher does. Exact in-place calls are fine.
+    static boolean partialOverlap(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        return in == out && inOff != outOff && inOff < outOff + len && outOff < inOff + len;
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+// Channel counterpart of AESInputStream. A non-blocking source that has no
+// data ready makes read() return 0.
+public class AESReadableChannel implements ReadableByteChannel {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel source;
+    private final AESStreamCipher cipher;
+    private final byte[] inBuf;
+    private final ByteBuffer inView;
+    private final byte[] outBuf;
+    private int outPos;
+    private int outLen;
+    private boolean eof;
+    private boolean open = true;
+
+    public AESReadableChannel(ReadableByteChannel source, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt,
+                              byte[] iv) {
+        this(source, schedule, mode, encrypt, iv, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AESReadableChannel(ReadableByteChannel source, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt,
+                              byte[] iv, int bufferSize) {
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("buffer size must be at least 16 bytes");
+        this.source = source;
+        this.cipher = new AESStreamCipher(schedule, mode, encrypt, iv);
+        this.inBuf = new byte[bufferSize];
+        this.inView = ByteBuffer.wrap(inBuf);
+        this.outBuf = new byte[AESStreamCipher.maxUpdateOutput(bufferSize)];
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        if (!dst.hasRemaining())
+            return 0;
+        while (outPos == outLen) {
+            if (eof)
+                return -1;
+            inView.clear();
+            int n = source.read(inView);
+            if (n == 0)
+                return 0;
+            outPos = 0;
+            try {
+                if (n < 0) {
+                    eof = true;
+                    outLen = cipher.doFinal(outBuf, 0);
+                } else {
+                    outLen = cipher.update(inBuf, 0, n, outBuf, 0);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        int n = Math.min(dst.remaining(), outLen - outPos);
+        dst.put(outBuf, outPos, n);
+        outPos += n;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        source.close();
+    }
+}
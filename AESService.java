@@ -0,0 +1,309 @@
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Request-level front end for many concurrent callers each encrypting a few
+// blocks. Callers block (parking, so virtual threads on 21+ give up their
+// carrier) while one dispatcher thread drains the queue: it waits at most the
+// linger time for up to maxBatchBlocks blocks, gathers the requests sharing a
+// schedule and direction into one buffer and runs them through a single
+// encryptBlocks/decryptBlocks call, then copies the results back.
+//
+// Requests of maxBatchBlocks or more gain nothing from batching and run on
+// the caller's thread.
+//
+// Histograms use power-of-two buckets: bucket 0 counts zeros and bucket
+// i > 0 counts values in [2^(i-1), 2^i).
+public final class AESService implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_BLOCKS = 256;
+    public static final long DEFAULT_LINGER_NANOS = 20_000;
+
+    private static final int BUCKETS = 32;
+
+    private final AES.Engine engine;
+    private final int maxBatchBlocks;
+    private final long lingerNanos;
+    private final byte[] batch;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLongArray depthHistogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray batchHistogram = new AtomicLongArray(BUCKETS);
+    private final Thread dispatcher;
+    private volatile boolean closed;
+    // taken from the queue but did not fit into the last batch
+    private Request carried;
+
+    public AESService() {
+        this(AES.Engine.VECTOR, DEFAULT_MAX_BATCH_BLOCKS, DEFAULT_LINGER_NANOS);
+    }
+
+    public AESService(AES.Engine engine, int maxBatchBlocks, long lingerNanos) {
+        if (engine == null)
+            throw new IllegalArgumentException("engine is null");
+        if (maxBatchBlocks <= 0)
+            throw new IllegalArgumentException("maximum batch size must be positive");
+        if (lingerNanos < 0)
+            throw new IllegalArgumentException("linger time is negative");
+        this.engine = engine;
+        this.maxBatchBlocks = maxBatchBlocks;
+        this.lingerNanos = lingerNanos;
+        this.batch = new byte[16 * maxBatchBlocks];
+        dispatcher = new Thread(this::dispatch, "AESService-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // nBlocks independent blocks; in and out must be the same range or not overlap
+    public int encryptBlocks(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+        return submit(schedule, true, in, inOff, out, outOff, nBlocks);
+    }
+
+    public int decryptBlocks(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+        return submit(schedule, false, in, inOff, out, outOff, nBlocks);
+    }
+
+    private int submit(AES.KeySchedule schedule, boolean encrypt, byte[] in, int inOff, byte[] out, int outOff,
+                       int nBlocks) {
+        if (schedule == null)
+            throw new IllegalArgumentException("schedule is null");
+        if (nBlocks < 0 || inOff < 0 || outOff < 0 || inOff > in.length - 16 * nBlocks
+            || outOff > out.length - 16 * nBlocks)
+            throw new IllegalArgumentException("block range out of bounds");
+        if (closed)
+            throw new IllegalStateException("service closed");
+        if (nBlocks == 0)
+            return AES.SUCCESS;
+        if (nBlocks >= maxBatchBlocks) {
+            if (encrypt)
+                engine.encryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+            else
+                engine.decryptBlocks(schedule, in, inOff, out, outOff, nBlocks);
+            return AES.SUCCESS;
+        }
+
+        Request request = new Request(schedule, encrypt, in, inOff, out, outOff, nBlocks);
+        depth.incrementAndGet();
+        queue.add(request);
+        // close() may have drained the queue before our add
+        if (closed && queue.remove(request)) {
+            depth.decrementAndGet();
+            throw new IllegalStateException("service closed");
+        }
+        // park() returns at once while the interrupt flag is set, so clear it
+        // for the wait and restore it afterwards
+        boolean interrupted = false;
+        while (!request.done) {
+            LockSupport.park(this);
+            if (Thread.interrupted())
+                interrupted = true;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        Throwable failure = request.failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw new IllegalStateException(failure);
+        return AES.SUCCESS;
+    }
+
+    private void dispatch() {
+        ArrayList<Request> pending = new ArrayList<>();
+        try {
+            while (collect(pending)) {
+                run(pending);
+                pending.clear();
+            }
+        } catch (Throwable t) {
+            // Nothing would complete the waiting callers: stop taking
+            // requests and fail everything not yet done
+            closed = true;
+            IllegalStateException failure = new IllegalStateException("dispatcher failed", t);
+            for (Request r : pending)
+                if (!r.done)
+                    r.complete(failure);
+            Request r = carried;
+            carried = null;
+            if (r != null)
+                r.complete(failure);
+            while ((r = queue.poll()) != null) {
+                depth.decrementAndGet();
+                r.complete(failure);
+            }
+            throw t;
+        }
+    }
+
+    // Fills pending with up to maxBatchBlocks blocks; false once closed and
+    // drained. close() interrupts the waits, never a batch in progress.
+    private boolean collect(ArrayList<Request> pending) {
+        Request first = carried;
+        carried = null;
+        while (first == null) {
+            if (closed && queue.isEmpty())
+                return false;
+            try {
+                first = queue.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // recheck closed
+            }
+        }
+        record(depthHistogram, depth.get());
+        pending.add(first);
+        int blocks = first.nBlocks;
+        long deadline = System.nanoTime() + lingerNanos;
+        while (blocks < maxBatchBlocks) {
+            Request next = queue.poll();
+            if (next == null) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0 || closed)
+                    break;
+                try {
+                    next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (next == null)
+                    break;
+            }
+            if (blocks + next.nBlocks > maxBatchBlocks) {
+                carried = next;
+                break;
+            }
+            pending.add(next);
+            blocks += next.nBlocks;
+        }
+        depth.addAndGet(-pending.size());
+        record(batchHistogram, blocks);
+        return true;
+    }
+
+    // One engine call per (schedule, direction) group in pending
+    private void run(ArrayList<Request> pending) {
+        int n = pending.size();
+        for (int i = 0; i < n; i++) {
+            Request head = pending.get(i);
+            if (head.done)
+                continue;
+            int blocks = 0;
+            for (int j = i; j < n; j++) {
+                Request r = pending.get(j);
+                if (!r.done && r.schedule == head.schedule && r.encrypt == head.encrypt) {
+                    System.arraycopy(r.in, r.inOff, batch, 16 * blocks, 16 * r.nBlocks);
+                    blocks += r.nBlocks;
+                }
+            }
+            Throwable failure = null;
+            try {
+                if (head.encrypt)
+                    engine.encryptBlocks(head.schedule, batch, 0, batch, 0, blocks);
+                else
+                    engine.decryptBlocks(head.schedule, batch, 0, batch, 0, blocks);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            blocks = 0;
+            for (int j = i; j < n; j++) {
+                Request r = pending.get(j);
+                if (!r.done && r.schedule == head.schedule && r.encrypt == head.encrypt) {
+                    if (failure == null)
+                        System.arraycopy(batch, 16 * blocks, r.out, r.outOff, 16 * r.nBlocks);
+                    blocks += r.nBlocks;
+                    r.complete(failure);
+                }
+            }
+        }
+    }
+
+    private static void record(AtomicLongArray histogram, int value) {
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(value)));
+    }
+
+    private static long[] snapshot(AtomicLongArray histogram) {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = histogram.get(i);
+        return counts;
+    }
+
+    // Requests waiting at the start of each batch
+    public long[] queueDepthHistogram() {
+        return snapshot(depthHistogram);
+    }
+
+    // Blocks per batch
+    public long[] batchSizeHistogram() {
+        return snapshot(batchHistogram);
+    }
+
+    public int queueDepth() {
+        return depth.get();
+    }
+
+    public int maximumBatchBlocks() {
+        return maxBatchBlocks;
+    }
+
+    public long lingerNanos() {
+        return lingerNanos;
+    }
+
+    // Stops accepting requests, finishes the queued ones and stops the dispatcher
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        boolean interrupted = false;
+        while (dispatcher.isAlive()) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public String toString() {
+        long batches = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            batches += batchHistogram.get(i);
+        return String.format("AESService[engine=%s, maxBatchBlocks=%d, lingerNanos=%d, queueDepth=%d, batches=%d]",
+            engine, maxBatchBlocks, lingerNanos, queueDepth(), batches);
+    }
+
+    private static final class Request {
+        final AES.KeySchedule schedule;
+        final boolean encrypt;
+        final byte[] in;
+        final int inOff;
+        final byte[] out;
+        final int outOff;
+        final int nBlocks;
+        final Thread waiter = Thread.currentThread();
+        Throwable failure;
+        volatile boolean done;
+
+        Request(AES.KeySchedule schedule, boolean encrypt, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+            this.schedule = schedule;
+            this.encrypt = encrypt;
+            this.in = in;
+            this.inOff = inOff;
+            this.out = out;
+            this.outOff = outOff;
+            this.nBlocks = nBlocks;
+        }
+
+        void complete(Throwable failure) {
+            this.failure = failure;
+            done = true;
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+// Incremental front end to AESModes for the stream and channel wrappers.
+// Whole blocks go straight through; at most one block is held back between
+// calls (a partial block, or for padded decryption the last full block,
+// which may carry the padding). ECB and CBC use PKCS#7 padding, the other
+// modes none.
+final class AESStreamCipher {
+
+    private final AESModes modes;
+    private final AESModes.Mode mode;
+    private final boolean encrypt;
+    private final boolean padded;
+    private final byte[] iv;
+    private final byte[] chain = new byte[16];
+    private final byte[] lastIn = new byte[16];
+    private final byte[] pending = new byte[16];
+    private int pendingLen;
+    private long blocksDone;
+    private boolean finished;
+
+    AESStreamCipher(AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt, byte[] iv) {
+        if (mode != AESModes.Mode.ECB && (iv == null || iv.length != 16))
+            throw new IllegalArgumentException("iv must be 16 bytes");
+        // Batches are already bounded by the caller's buffer, run them on the caller's thread
+        this.modes = new AESModes(schedule, AES.Engine.TTABLE, null, AESModes.DEFAULT_CHUNK_SIZE);
+        this.mode = mode;
+        this.encrypt = encrypt;
+        this.padded = mode == AESModes.Mode.ECB || mode == AESModes.Mode.CBC;
+        this.iv = iv == null ? null : iv.clone();
+        if (iv != null)
+            System.arraycopy(iv, 0, chain, 0, 16);
+    }
+
+    // Largest output a call to update() with len bytes can produce
+    static int maxUpdateOutput(int len) {
+        return len + 15;
+    }
+
+    // in and out must not overlap. Returns the number of bytes written.
+    int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (finished)
+            throw new IllegalStateException("already finished");
+        int avail = (pendingLen + len) & ~15;
+        if (padded && !encrypt && avail == pendingLen + len)
+            avail -= 16;
+        if (avail <= 0) {
+            System.arraycopy(in, inOff, pending, pendingLen, len);
+            pendingLen += len;
+            return 0;
+        }
+
+        int written = 0;
+        if (pendingLen > 0) {
+            int n = 16 - pendingLen;
+            System.arraycopy(in, inOff, pending, pendingLen, n);
+            inOff += n;
+            len -= n;
+            process(pending, 0, 16, out, outOff);
+            written = 16;
+            avail -= 16;
+            pendingLen = 0;
+        }
+        if (avail > 0) {
+            process(in, inOff, avail, out, outOff + written);
+            inOff += avail;
+            len -= avail;
+            written += avail;
+        }
+        System.arraycopy(in, inOff, pending, 0, len);
+        pendingLen = len;
+        return written;
+    }
+
+    // Writes the last (possibly padded) block; at most 16 bytes
+    int doFinal(byte[] out, int outOff) {
+        if (finished)
+            return 0;
+        finished = true;
+        byte[] feedback = mode == AESModes.Mode.ECB ? null : chain;
+        if (encrypt)
+            return modes.encrypt(mode, feedback, pending, 0, pendingLen, out, outOff, padded);
+        if (padded && pendingLen != 16)
+            throw new IllegalArgumentException("ciphertext is not a whole number of blocks");
+        return modes.decrypt(mode, feedback, pending, 0, pendingLen, out, outOff, padded);
+    }
+
+    private void process(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        byte[] feedback = mode == AESModes.Mode.ECB ? null : chain;
+        System.arraycopy(in, inOff + len - 16, lastIn, 0, 16);
+        if (encrypt)
+            modes.encrypt(mode, feedback, in, inOff, len, out, outOff, false);
+        else
+            modes.decrypt(mode, feedback, in, inOff, len, out, outOff, false);
+        blocksDone += len / 16;
+
+        // Chaining value for the next batch
+        switch (mode) {
+            case CBC:
+            case CFB:
+                System.arraycopy(encrypt ? out : lastIn, encrypt ? outOff + len - 16 : 0, chain, 0, 16);
+                break;
+            case OFB:
+                // the last keystream block: ciphertext ^ plaintext
+                for (int i = 0; i < 16; i++)
+                    chain[i] = (byte) (lastIn[i] ^ out[outOff + len - 16 + i]);
+                break;
+            case CTR:
+                AESCTR.counterBlock(iv, blocksDone, chain);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+// Round engine working on the state as four 32-bit column words. SubBytes,
+// ShiftRows and MixColumns of one round collapse into 16 table lookups.
+public final class AESTTable {
+
+    static final int[] Te0 = new int[256], Te1 = new int[256], Te2 = new int[256], Te3 = new int[256];
+    static final int[] Td0 = new int[256], Td1 = new int[256], Td2 = new int[256], Td3 = new int[256];
+    static final byte[] Sbox = new byte[256], InvSbox = new byte[256];
+
+    static {
+        for (int x = 0; x < 256; x++) {
+            byte s = AES.getSBoxValue((byte) x);
+            int s1 = s & 0xFF;
+            int s2 = AES.galoisMultiplication(s, (byte) 2) & 0xFF;
+            int s3 = AES.galoisMultiplication(s, (byte) 3) & 0xFF;
+            int te = (s2 << 24) | (s1 << 16) | (s1 << 8) | s3;
+            Te0[x] = te;
+            Te1[x] = Integer.rotateRight(te, 8);
+            Te2[x] = Integer.rotateRight(te, 16);
+            Te3[x] = Integer.rotateRight(te, 24);
+            Sbox[x] = s;
+
+            byte i = AES.getSBoxInvert((byte) x);
+            int i9 = AES.galoisMultiplication(i, (byte) 0x09) & 0xFF;
+            int ib = AES.galoisMultiplication(i, (byte) 0x0b) & 0xFF;
+            int id = AES.galoisMultiplication(i, (byte) 0x0d) & 0xFF;
+            int ie = AES.galoisMultiplication(i, (byte) 0x0e) & 0xFF;
+            int td = (ie << 24) | (i9 << 16) | (id << 8) | ib;
+            Td0[x] = td;
+            Td1[x] = Integer.rotateRight(td, 8);
+            Td2[x] = Integer.rotateRight(td, 16);
+            Td3[x] = Integer.rotateRight(td, 24);
+            InvSbox[x] = i;
+        }
+    }
+
+    private AESTTable() {
+    }
+
+    // Column c of the state is bytes 4c..4c+3 of the block, row 0 in the high byte
+    static int loadColumn(byte[] b, int off, int c) {
+        off += 4 * c;
+        return (b[off] << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    static void storeColumn(int w, byte[] b, int off, int c) {
+        off += 4 * c;
+        b[off] = (byte) (w >>> 24);
+        b[off + 1] = (byte) (w >>> 16);
+        b[off + 2] = (byte) (w >>> 8);
+        b[off + 3] = (byte) w;
+    }
+
+    static int invMixColumn(int w) {
+        // Td[Sbox[x]] is InvMixColumns applied to a single byte x
+        return Td0[Sbox[w >>> 24] & 0xFF]
+            ^ Td1[Sbox[(w >>> 16) & 0xFF] & 0xFF]
+            ^ Td2[Sbox[(w >>> 8) & 0xFF] & 0xFF]
+            ^ Td3[Sbox[w & 0xFF] & 0xFF];
+    }
+
+    static int[] encryptionWords(byte[] expandedKey) {
+        int[] ek = new int[expandedKey.length / 4];
+        for (int i = 0; i < ek.length; i++)
+            ek[i] = loadColumn(expandedKey, 0, i);
+        return ek;
+    }
+
+    // Round keys for the equivalent inverse cipher: reversed, with
+    // InvMixColumns applied to every round but the first and last.
+    static int[] decryptionWords(int[] ek) {
+        int nbrRounds = ek.length / 4 - 1;
+        int[] dk = new int[ek.length];
+        for (int r = 0; r <= nbrRounds; r++) {
+            for (int c = 0; c < 4; c++) {
+                int w = ek[(nbrRounds - r) * 4 + c];
+                dk[r * 4 + c] = (r == 0 || r == nbrRounds) ? w : invMixColumn(w);
+            }
+        }
+        return dk;
+    }
+
+    public static void encryptBlock(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+        int[] rk = schedule.encWords();
+        int nbrRounds = schedule.nbrRounds;
+        int s0 = loadColumn(in, inOff, 0) ^ rk[0];
+        int s1 = loadColumn(in, inOff, 1) ^ rk[1];
+        int s2 = loadColumn(in, inOff, 2) ^ rk[2];
+        int s3 = loadColumn(in, inOff, 3) ^ rk[3];
+        int k = 4;
+        for (int round = 1; round < nbrRounds; round++) {
+            int t0 = Te0[s0 >>> 24] ^ Te1[(s1 >>> 16) & 0xFF] ^ Te2[(s2 >>> 8) & 0xFF] ^ Te3[s3 & 0xFF] ^ rk[k];
+            int t1 = Te0[s1 >>> 24] ^ Te1[(s2 >>> 16) & 0xFF] ^ Te2[(s3 >>> 8) & 0xFF] ^ Te3[s0 & 0xFF] ^ rk[k + 1];
+            int t2 = Te0[s2 >>> 24] ^ Te1[(s3 >>> 16) & 0xFF] ^ Te2[(s0 >>> 8) & 0xFF] ^ Te3[s1 & 0xFF] ^ rk[k + 2];
+            int t3 = Te0[s3 >>> 24] ^ Te1[(s0 >>> 16) & 0xFF] ^ Te2[(s1 >>> 8) & 0xFF] ^ Te3[s2 & 0xFF] ^ rk[k + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+            k += 4;
+        }
+        storeColumn(finalRound(Sbox, s0, s1, s2, s3) ^ rk[k], out, outOff, 0);
+        storeColumn(finalRound(Sbox, s1, s2, s3, s0) ^ rk[k + 1], out, outOff, 1);
+        storeColumn(finalRound(Sbox, s2, s3, s0, s1) ^ rk[k + 2], out, outOff, 2);
+        storeColumn(finalRound(Sbox, s3, s0, s1, s2) ^ rk[k + 3], out, outOff, 3);
+    }
+
+    public static void decryptBlock(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff) {
+        int[] rk = schedule.decWords();
+        int nbrRounds = schedule.nbrRounds;
+        int s0 = loadColumn(in, inOff, 0) ^ rk[0];
+        int s1 = loadColumn(in, inOff, 1) ^ rk[1];
+        int s2 = loadColumn(in, inOff, 2) ^ rk[2];
+        int s3 = loadColumn(in, inOff, 3) ^ rk[3];
+        int k = 4;
+        for (int round = 1; round < nbrRounds; round++) {
+            int t0 = Td0[s0 >>> 24] ^ Td1[(s3 >>> 16) & 0xFF] ^ Td2[(s2 >>> 8) & 0xFF] ^ Td3[s1 & 0xFF] ^ rk[k];
+            int t1 = Td0[s1 >>> 24] ^ Td1[(s0 >>> 16) & 0xFF] ^ Td2[(s3 >>> 8) & 0xFF] ^ Td3[s2 & 0xFF] ^ rk[k + 1];
+            int t2 = Td0[s2 >>> 24] ^ Td1[(s1 >>> 16) & 0xFF] ^ Td2[(s0 >>> 8) & 0xFF] ^ Td3[s3 & 0xFF] ^ rk[k + 2];
+            int t3 = Td0[s3 >>> 24] ^ Td1[(s2 >>> 16) & 0xFF] ^ Td2[(s1 >>> 8) & 0xFF] ^ Td3[s0 & 0xFF] ^ rk[k + 3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+            k += 4;
+        }
+        storeColumn(finalRound(InvSbox, s0, s3, s2, s1) ^ rk[k], out, outOff, 0);
+        storeColumn(finalRound(InvSbox, s1, s0, s3, s2) ^ rk[k + 1], out, outOff, 1);
+        storeColumn(finalRound(InvSbox, s2, s1, s0, s3) ^ rk[k + 2], out, outOff, 2);
+        storeColumn(finalRound(InvSbox, s3, s2, s1, s0) ^ rk[k + 3], out, outOff, 3);
+    }
+
+    // SubBytes + ShiftRows for one output column; a..d supply rows 0..3
+    private static int finalRound(byte[] box, int a, int b, int c, int d) {
+        return ((box[a >>> 24] & 0xFF) << 24)
+            | ((box[(b >>> 16) & 0xFF] & 0xFF) << 16)
+            | ((box[(c >>> 8) & 0xFF] & 0xFF) << 8)
+            | (box[d & 0xFF] & 0xFF);
+    }
+}
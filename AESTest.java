@@ -0,0 +1,332 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Self-checks for the cipher, run like AESBenchmark:
+//
+//   javac --add-modules jdk.incubator.vector *.java
+//   java --add-modules jdk.incubator.vector AESTest
+//
+// Prints one line per check and exits with status 1 if any of them failed.
+public final class AESTest {
+
+    interface Op {
+        void run();
+    }
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int OPS_PER_ROUND = 20_000;
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) {
+        System.out.printf("java %s (%s), vector accelerated: %b%n", System.getProperty("java.version"),
+            System.getProperty("java.vm.name"), AES.isVectorAccelerated());
+
+        fips197();
+        gcm();
+        xts();
+        overlap();
+        allocationFree();
+
+        System.out.printf("%d checks, %d failed%n", checks, failures);
+        if (failures != 0)
+            System.exit(1);
+    }
+
+    private static void check(String name, boolean ok, String detail) {
+        checks++;
+        if (!ok)
+            failures++;
+        System.out.printf("%-4s %s%s%n", ok ? "ok" : "FAIL", name, ok || detail == null ? "" : ": " + detail);
+    }
+
+    // FIPS-197 Appendix C.1-C.3, every engine, plus the BITSLICED-only schedule
+    private static void fips197() {
+        String plain = "00112233445566778899aabbccddeeff";
+        String[] cipher = {
+            "69c4e0d86a7b0430d8cdb78070b4c55a",
+            "dda97ca4864cdfe06eaf70a0ec0d7191",
+            "8ea2b7ca516745bfeafc49904b496089"
+        };
+        AES.KeySize[] sizes = AES.KeySize.values();
+        for (int s = 0; s < sizes.length; s++) {
+            byte[] key = new byte[sizes[s].value];
+            for (int i = 0; i < key.length; i++)
+                key[i] = (byte) i;
+            AES.KeySchedule full = new AES.KeySchedule(key, sizes[s]);
+            AES.KeySchedule bitsliced = new AES.KeySchedule(key, sizes[s], AES.Engine.BITSLICED);
+            for (AES.Engine engine : AES.Engine.values()) {
+                String name = "fips197." + engine.name().toLowerCase() + "/" + sizes[s].value * 8;
+                block(name, engine, full, plain, cipher[s]);
+                if (engine == AES.Engine.BITSLICED)
+                    block(name + ".ctKeySchedule", engine, bitsliced, plain, cipher[s]);
+            }
+        }
+    }
+
+    private static void block(String name, AES.Engine engine, AES.KeySchedule schedule, String plain, String cipher) {
+        byte[] in = hex(plain);
+        byte[] out = new byte[16];
+        byte[] back = new byte[16];
+        engine.encryptBlock(schedule, in, 0, out, 0);
+        engine.decryptBlock(schedule, out, 0, back, 0);
+        check(name, hex(out).equals(cipher) && Arrays.equals(back, in), hex(out));
+    }
+
+    // McGrew and Viega, "The Galois/Counter Mode of Operation", test cases
+    // 1-6 (128-bit key) and 16 (256-bit key), with every engine
+    private static void gcm() {
+        String k = "feffe9928665731c6d6a8f9467308308";
+        String p = "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+            + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255";
+        String p60 = p.substring(0, 120);
+        String a = "feedfacedeadbeeffeedfacedeadbeefabaddad2";
+        String[][] cases = {
+            // key, plaintext, aad, iv, ciphertext, tag
+            {"00000000000000000000000000000000", "", "", "000000000000000000000000", "",
+                "58e2fccefa7e3061367f1d57a4e7455a"},
+            {"00000000000000000000000000000000", "00000000000000000000000000000000", "",
+                "000000000000000000000000", "0388dace60b6a392f328c2b971b2fe78", "ab6e47d42cec13bdf53a67b21257bddf"},
+            {k, p, "", "cafebabefacedbaddecaf888",
+                "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+                    + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985",
+                "4d5c2af327cd64a62cf35abd2ba6fab4"},
+            {k, p60, a, "cafebabefacedbaddecaf888",
+                "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+                    + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091",
+                "5bc94fbc3221a5db94fae95ae7121a47"},
+            {k, p60, a, "cafebabefacedbad",
+                "61353b4c2806934a777ff51fa22a4755699b2a714fcdc6f83766e5f97b6c7423"
+                    + "73806900e49f24b22b097544d4896b424989b5e1ebac0f07c23f4598",
+                "3612d2e79e3b0785561be14aaca2fccb"},
+            {k, p60, a, "9313225df88406e555909c5aff5269aa6a7a9538534f7da1e4c303d2a318a728"
+                + "c3c0c95156809539fcf0e2429a6b525416aedbf5a0de6a57a637b39b",
+                "8ce24998625615b603a033aca13fb894be9112a5c3a211a8ba262a3cca7e2ca7"
+                    + "01e4a9a4fba43c90ccdcb281d48c7c6fd62875d2aca417034c34aee5",
+                "619cc5aefffe0bfa462af43c1699d050"},
+            {k + k, p60, a, "cafebabefacedbaddecaf888",
+                "522dc1f099567d07f47f37a32a84427d643a8cdcbfe5c0c97598a2bd2555d1aa"
+                    + "8cb08e48590dbb3da7b08b1056828838c5f61e6393ba7a0abcc9f662",
+                "76fc6ece0f4e1768cddf8853bb2d551b"}
+        };
+        int[] numbers = {1, 2, 3, 4, 5, 6, 16};
+        for (int c = 0; c < cases.length; c++) {
+            byte[] key = hex(cases[c][0]);
+            byte[] plain = hex(cases[c][1]);
+            byte[] aad = hex(cases[c][2]);
+            byte[] iv = hex(cases[c][3]);
+            AES.KeySchedule schedule = new AES.KeySchedule(key, key.length == 16 ? AES.KeySize.SIZE_16 : AES.KeySize.SIZE_32);
+            for (AES.Engine engine : AES.Engine.values()) {
+                String name = "gcm.case" + numbers[c] + "." + engine.name().toLowerCase();
+                AESGCM gcm = new AESGCM(schedule, engine);
+                byte[] out = new byte[plain.length];
+                byte[] tag = new byte[16];
+                gcm.encrypt(iv, aad, plain, 0, plain.length, out, 0, tag);
+                check(name + ".encrypt", hex(out).equals(cases[c][4]) && hex(tag).equals(cases[c][5]),
+                    hex(out) + " " + hex(tag));
+
+                byte[] back = new byte[plain.length];
+                int code = gcm.decrypt(iv, aad, out, 0, out.length, back, 0, tag);
+                check(name + ".decrypt", code == AES.SUCCESS && Arrays.equals(back, plain), "code " + code);
+
+                // a forged message must not leave any plaintext behind
+                tag[0] ^= 1;
+                back = new byte[plain.length];
+                code = gcm.decrypt(iv, aad, out, 0, out.length, back, 0, tag);
+                check(name + ".badTag",
+                    code == AES.ERROR_AES_AUTH_FAILED && Arrays.equals(back, new byte[plain.length]),
+                    "code " + code + " " + hex(back));
+            }
+        }
+    }
+
+    // IEEE 1619-2007 Annex B: vectors 1-3, vector 10 (XTS-AES-256, 512-byte
+    // sector) and vectors 15-18 (17 to 20 bytes, ciphertext stealing). The
+    // data unit number is the little-endian tweak read as a number, so the
+    // standard's bytes 9a 78 56 34 12 are sector 0x123456789a.
+    private static void xts() {
+        String k1 = "fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0";
+        String k2 = "bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0";
+        StringBuilder counting = new StringBuilder();
+        for (int i = 0; i < 512; i++)
+            counting.append(String.format("%02x", i & 0xFF));
+        String[][] cases = {
+            // key1, key2, sector, plaintext, ciphertext
+            {"00000000000000000000000000000000", "00000000000000000000000000000000", "0",
+                "0000000000000000000000000000000000000000000000000000000000000000",
+                "917cf69ebd68b2ec9b9fe9a3eadda692cd43d2f59598ed858c02c2652fbf922e"},
+            {"11111111111111111111111111111111", "22222222222222222222222222222222", "3333333333",
+                "4444444444444444444444444444444444444444444444444444444444444444",
+                "c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0"},
+            {k1, "22222222222222222222222222222222", "3333333333",
+                "4444444444444444444444444444444444444444444444444444444444444444",
+                "af85336b597afc1a900b2eb21ec949d292df4c047e0b21532186a5971a227a89"},
+            {"2718281828459045235360287471352662497757247093699959574966967627",
+                "3141592653589793238462643383279502884197169399375105820974944592", "ff", counting.toString(),
+                "1c3b3a102f770386e4836c99e370cf9bea00803f5e482357a4ae12d414a3e63b"
+                    + "5d31e276f8fe4a8d66b317f9ac683f44680a86ac35adfc3345befecb4bb188fd"
+                    + "5776926c49a3095eb108fd1098baec70aaa66999a72a82f27d848b21d4a741b0"
+                    + "c5cd4d5fff9dac89aeba122961d03a757123e9870f8acf1000020887891429ca"
+                    + "2a3e7a7d7df7b10355165c8b9a6d0a7de8b062c4500dc4cd120c0f7418dae3d0"
+                    + "b5781c34803fa75421c790dfe1de1834f280d7667b327f6c8cd7557e12ac3a0f"
+                    + "93ec05c52e0493ef31a12d3d9260f79a289d6a379bc70c50841473d1a8cc81ec"
+                    + "583e9645e07b8d9670655ba5bbcfecc6dc3966380ad8fecb17b6ba02469a020a"
+                    + "84e18e8f84252070c13e9f1f289be54fbc481457778f616015e1327a02b140f1"
+                    + "505eb309326d68378f8374595c849d84f4c333ec4423885143cb47bd71c5edae"
+                    + "9be69a2ffeceb1bec9de244fbe15992b11b77c040f12bd8f6a975a44a0f90c29"
+                    + "a9abc3d4d893927284c58754cce294529f8614dcd2aba991925fedc4ae74ffac"
+                    + "6e333b93eb4aff0479da9a410e4450e0dd7ae4c6e2910900575da401fc07059f"
+                    + "645e8b7e9bfdef33943054ff84011493c27b3429eaedb4ed5376441a77ed4385"
+                    + "1ad77f16f541dfd269d50d6a5f14fb0aab1cbb4c1550be97f7ab4066193c4caa"
+                    + "773dad38014bd2092fa755c824bb5e54c4f36ffda9fcea70b9c6e693e148c151"},
+            {k1, k2, "123456789a", "000102030405060708090a0b0c0d0e0f10",
+                "6c1625db4671522d3d7599601de7ca09ed"},
+            {k1, k2, "123456789a", "000102030405060708090a0b0c0d0e0f1011",
+                "d069444b7a7e0cab09e24447d24deb1fedbf"},
+            {k1, k2, "123456789a", "000102030405060708090a0b0c0d0e0f101112",
+                "e5df1351c0544ba1350b3363cd8ef4beedbf9d"},
+            {k1, k2, "123456789a", "000102030405060708090a0b0c0d0e0f10111213",
+                "9d84c813f719aa2c7be3f66171c7c5c2edbf9dac"}
+        };
+        int[] numbers = {1, 2, 3, 10, 15, 16, 17, 18};
+        for (int c = 0; c < cases.length; c++) {
+            byte[] key1 = hex(cases[c][0]);
+            AES.KeySize size = key1.length == 16 ? AES.KeySize.SIZE_16 : AES.KeySize.SIZE_32;
+            AES.KeySchedule dataKey = new AES.KeySchedule(key1, size);
+            AES.KeySchedule tweakKey = new AES.KeySchedule(hex(cases[c][1]), size);
+            long sector = Long.parseLong(cases[c][2], 16);
+            byte[] plain = hex(cases[c][3]);
+            for (AES.Engine engine : AES.Engine.values()) {
+                String name = "xts.vector" + numbers[c] + "." + engine.name().toLowerCase();
+                AESXTS xts = new AESXTS(dataKey, tweakKey, engine, null, AESXTS.DEFAULT_CHUNK_SIZE);
+                byte[] out = plain.clone();
+                xts.encryptSector(sector, out, 0, out, 0, out.length);
+                check(name + ".encrypt", hex(out).equals(cases[c][4]), hex(out));
+                xts.decryptSector(sector, out, 0, out, 0, out.length);
+                check(name + ".decrypt", Arrays.equals(out, plain), hex(out));
+            }
+        }
+    }
+
+    // Every mode with out shifted against in by a few blocks either way, on the
+    // calling thread and on the pool, against the same call with disjoint arrays.
+    // 1 KB chunks so a 3 KB input spans several chunks and CBC batches.
+    private static void overlap() {
+        byte[] key = hex("000102030405060708090a0b0c0d0e0f");
+        byte[] iv = hex("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff");
+        AES.KeySchedule schedule = new AES.KeySchedule(key, AES.KeySize.SIZE_16);
+        int len = 3072;
+        byte[] plain = new byte[len];
+        for (int i = 0; i < len; i++)
+            plain[i] = (byte) (i * 7);
+        int[] shifts = { -48, -16, 16, 48 };
+        for (AESModes.Mode mode : AESModes.Mode.values()) {
+            byte[] modeIv = mode == AESModes.Mode.ECB ? null : iv;
+            for (boolean encrypt : new boolean[] { true, false }) {
+                StringBuilder bad = new StringBuilder();
+                for (Executor executor : new Executor[] { null, ForkJoinPool.commonPool() }) {
+                    AESModes modes = new AESModes(schedule, AES.Engine.TTABLE, executor, 1024);
+                    byte[] expected = new byte[len];
+                    if (encrypt)
+                        modes.encrypt(mode, modeIv, plain, 0, len, expected, 0, false);
+                    else
+                        modes.decrypt(mode, modeIv, plain, 0, len, expected, 0, false);
+                    for (int shift : shifts) {
+                        byte[] buf = new byte[len + 96];
+                        System.arraycopy(plain, 0, buf, 48, len);
+                        if (encrypt)
+                            modes.encrypt(mode, modeIv, buf, 48, len, buf, 48 + shift, false);
+                        else
+                            modes.decrypt(mode, modeIv, buf, 48, len, buf, 48 + shift, false);
+                        if (!Arrays.equals(buf, 48 + shift, 48 + shift + len, expected, 0, len))
+                            bad.append(' ').append(executor == null ? "serial" : "pool").append(shift);
+                    }
+                }
+                check("overlap." + mode.name().toLowerCase() + (encrypt ? ".encrypt" : ".decrypt"),
+                    bad.length() == 0, "wrong at" + bad);
+            }
+        }
+    }
+
+    // The block paths must not allocate once warm: offsets into arrays, heap
+    // buffers and direct buffers, for every engine
+    private static void allocationFree() {
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("skip allocation checks: no per-thread allocation counter");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++)
+            key[i] = (byte) i;
+        AES.KeySchedule schedule = new AES.KeySchedule(key, AES.KeySize.SIZE_32);
+        byte[] in = new byte[48];
+        byte[] out = new byte[48];
+        ByteBuffer heapIn = ByteBuffer.wrap(in);
+        ByteBuffer heapOut = ByteBuffer.wrap(out);
+        ByteBuffer directIn = ByteBuffer.allocateDirect(16);
+        ByteBuffer directOut = ByteBuffer.allocateDirect(16);
+
+        for (AES.Engine engine : AES.Engine.values()) {
+            String e = engine.name().toLowerCase();
+            allocation("alloc.offset." + e, () -> {
+                AES.aesEncrypt(in, 16, out, 32, schedule, engine);
+                AES.aesDecrypt(out, 32, in, 16, schedule, engine);
+            });
+            allocation("alloc.heapBuffer." + e, () -> {
+                heapIn.clear().position(16);
+                heapOut.clear().position(32);
+                AES.aesEncrypt(heapIn, heapOut, schedule, engine);
+                heapOut.clear().position(32);
+                heapIn.clear().position(16);
+                AES.aesDecrypt(heapOut, heapIn, schedule, engine);
+            });
+            allocation("alloc.directBuffer." + e, () -> {
+                directIn.clear();
+                directOut.clear();
+                AES.aesEncrypt(directIn, directOut, schedule, engine);
+                directIn.clear();
+                directOut.clear();
+                AES.aesDecrypt(directOut, directIn, schedule, engine);
+            });
+        }
+        // a hit in the shared key schedule cache
+        allocation("alloc.rawKey", () -> {
+            AES.aesEncrypt(in, out, key, AES.KeySize.SIZE_32);
+            AES.aesDecrypt(out, in, key, AES.KeySize.SIZE_32);
+        });
+    }
+
+    private static void allocation(String name, Op op) {
+        for (int r = 0; r < WARMUP_ROUNDS; r++)
+            for (int i = 0; i < OPS_PER_ROUND; i++)
+                op.run();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < OPS_PER_ROUND; i++)
+            op.run();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        check(name, allocated == 0, allocated + " bytes over " + OPS_PER_ROUND + " ops");
+    }
+
+    private static byte[] hex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder s = new StringBuilder(2 * b.length);
+        for (byte x : b)
+            s.append(String.format("%02x", x));
+        return s.toString();
+    }
+}
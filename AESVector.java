@@ -0,0 +1,164 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+// Multi-block engine on the JDK Vector API. One vector holds as many whole
+// blocks as the preferred species allows (one with SSE/NEON, two with AVX2,
+// four with AVX-512); every round step runs on all of them at once:
+// AddRoundKey is a lane-wise XOR, ShiftRows a shuffle, MixColumns xtime plus
+// in-column rotations, and SubBytes a blend of full-width shuffles over
+// vector-sized slices of the S-box (sixteen at 128 bits, four at 512).
+//
+// Needs --add-modules jdk.incubator.vector to compile and run. AES reaches
+// this class only reflectively and falls back to the T-table engine when it
+// cannot be loaded or isSupported() is false.
+final class AESVector {
+
+    static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    static final int BLOCKS = SPECIES.length() / 16;
+
+    // With a single block per vector the shuffle-based S-box loses to the
+    // T-tables, so below 256 bits AES keeps using its fallback
+    static boolean isSupported() {
+        return BLOCKS >= 2;
+    }
+
+    private static final VectorShuffle<Byte> SHIFT_ROWS = shuffle(1);
+    private static final VectorShuffle<Byte> INV_SHIFT_ROWS = shuffle(-1);
+    private static final VectorShuffle<Byte> ROT1 = rotation(1);
+    private static final VectorShuffle<Byte> ROT2 = rotation(2);
+    private static final VectorShuffle<Byte> ROT3 = rotation(3);
+    // S-box entries one vector holds, at most the whole box
+    private static final int LANES = Math.min(SPECIES.length(), 256);
+    private static final int SLICE_SHIFT = Integer.numberOfTrailingZeros(LANES);
+    private static final ByteVector[] SBOX = boxSlices(false);
+    private static final ByteVector[] INV_SBOX = boxSlices(true);
+
+    private AESVector() {
+    }
+
+    static void encryptBlocks(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+        int nbrRounds = schedule.nbrRounds;
+        byte[] rk = roundKeys(schedule);
+        int len = SPECIES.length();
+        int b = 0;
+        for (; b + BLOCKS <= nBlocks; b += BLOCKS) {
+            ByteVector x = ByteVector.fromArray(SPECIES, in, inOff + 16 * b)
+                .lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, rk, 0));
+            for (int r = 1; r < nbrRounds; r++) {
+                x = subBytes(x, SBOX).rearrange(SHIFT_ROWS);
+                x = mixColumns(x).lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, rk, r * len));
+            }
+            x = subBytes(x, SBOX).rearrange(SHIFT_ROWS)
+                .lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, rk, nbrRounds * len));
+            x.intoArray(out, outOff + 16 * b);
+        }
+        for (; b < nBlocks; b++)
+            AESTTable.encryptBlock(schedule, in, inOff + 16 * b, out, outOff + 16 * b);
+    }
+
+    static void decryptBlocks(AES.KeySchedule schedule, byte[] in, int inOff, byte[] out, int outOff, int nBlocks) {
+        int nbrRounds = schedule.nbrRounds;
+        byte[] rk = roundKeys(schedule);
+        int len = SPECIES.length();
+        int b = 0;
+        for (; b + BLOCKS <= nBlocks; b += BLOCKS) {
+            ByteVector x = ByteVector.fromArray(SPECIES, in, inOff + 16 * b)
+                .lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, rk, nbrRounds * len));
+            for (int r = nbrRounds - 1; r > 0; r--) {
+                x = subBytes(x.rearrange(INV_SHIFT_ROWS), INV_SBOX)
+                    .lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, rk, r * len));
+                x = invMixColumns(x);
+            }
+            x = subBytes(x.rearrange(INV_SHIFT_ROWS), INV_SBOX)
+                .lanewise(VectorOperators.XOR, ByteVector.fromArray(SPECIES, rk, 0));
+            x.intoArray(out, outOff + 16 * b);
+        }
+        for (; b < nBlocks; b++)
+            AESTTable.decryptBlock(schedule, in, inOff + 16 * b, out, outOff + 16 * b);
+    }
+
+    // Each round key repeated once per block in the vector; built once per
+    // schedule (racing threads build identical arrays)
+    private static byte[] roundKeys(AES.KeySchedule schedule) {
+        byte[] rk = schedule.vectorKeys;
+        if (rk == null) {
+            schedule.checkTables();
+            int len = SPECIES.length();
+            rk = new byte[(schedule.nbrRounds + 1) * len];
+            for (int r = 0; r <= schedule.nbrRounds; r++)
+                for (int i = 0; i < len; i += 16)
+                    System.arraycopy(schedule.expandedKey, 16 * r, rk, r * len + i, 16);
+            schedule.vectorKeys = rk;
+        }
+        return rk;
+    }
+
+    // Slice h of the box is entries [h * LANES, (h + 1) * LANES); a byte picks
+    // its entry from every slice by its low bits and keeps the one its high
+    // bits select, so no lookup depends on the data
+    private static ByteVector subBytes(ByteVector x, ByteVector[] slices) {
+        VectorShuffle<Byte> low = x.and((byte) (LANES - 1)).toShuffle();
+        ByteVector high = x.lanewise(VectorOperators.LSHR, SLICE_SHIFT);
+        ByteVector result = slices[0].rearrange(low);
+        for (int h = 1; h < slices.length; h++) {
+            VectorMask<Byte> m = high.eq((byte) h);
+            result = result.blend(slices[h].rearrange(low), m);
+        }
+        return result;
+    }
+
+    private static ByteVector xtime(ByteVector x) {
+        return x.lanewise(VectorOperators.LSHL, 1)
+            .lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.ASHR, 7).and((byte) 0x1b));
+    }
+
+    // out[r] = 2 a[r] ^ 3 a[r+1] ^ a[r+2] ^ a[r+3] within each column
+    private static ByteVector mixColumns(ByteVector a) {
+        ByteVector a1 = a.rearrange(ROT1);
+        ByteVector a2 = a.rearrange(ROT2);
+        ByteVector a3 = a.rearrange(ROT3);
+        return xtime(a.lanewise(VectorOperators.XOR, a1))
+            .lanewise(VectorOperators.XOR, a1)
+            .lanewise(VectorOperators.XOR, a2)
+            .lanewise(VectorOperators.XOR, a3);
+    }
+
+    // InvMixColumns = MixColumns after a[r] ^= 4 (a[r] ^ a[r+2])
+    private static ByteVector invMixColumns(ByteVector a) {
+        ByteVector w = xtime(xtime(a.lanewise(VectorOperators.XOR, a.rearrange(ROT2))));
+        return mixColumns(a.lanewise(VectorOperators.XOR, w));
+    }
+
+    // Byte 4c + r of a block is row r, column c
+    private static VectorShuffle<Byte> shuffle(int direction) {
+        int[] idx = new int[SPECIES.length()];
+        for (int i = 0; i < idx.length; i++) {
+            int base = i & ~15, c = (i & 15) >> 2, r = i & 3;
+            idx[i] = base + 4 * ((c + direction * r + 4) & 3) + r;
+        }
+        return VectorShuffle.fromArray(SPECIES, idx, 0);
+    }
+
+    private static VectorShuffle<Byte> rotation(int k) {
+        int[] idx = new int[SPECIES.length()];
+        for (int i = 0; i < idx.length; i++)
+            idx[i] = (i & ~3) + ((i + k) & 3);
+        return VectorShuffle.fromArray(SPECIES, idx, 0);
+    }
+
+    private static ByteVector[] boxSlices(boolean inverse) {
+        ByteVector[] slices = new ByteVector[256 / LANES];
+        byte[] lanes = new byte[SPECIES.length()];
+        for (int h = 0; h < slices.length; h++) {
+            for (int j = 0; j < lanes.length; j++) {
+                byte v = (byte) (h * LANES + (j & (LANES - 1)));
+                lanes[j] = inverse ? AES.getSBoxInvert(v) : AES.getSBoxValue(v);
+            }
+            slices[h] = ByteVector.fromArray(SPECIES, lanes, 0);
+        }
+        return slices;
+    }
+}
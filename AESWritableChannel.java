@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+// Channel counterpart of AESOutputStream. The target channel should be in
+// blocking mode: every transformed batch is written out completely before
+// write() returns.
+public class AESWritableChannel implements WritableByteChannel {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel target;
+    private final AESStreamCipher cipher;
+    private final byte[] inBuf;
+    private final byte[] outBuf;
+    private final ByteBuffer outView;
+    private int inLen;
+    private boolean open = true;
+
+    public AESWritableChannel(WritableByteChannel target, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt,
+                              byte[] iv) {
+        this(target, schedule, mode, encrypt, iv, DEFAULT_BUFFER_SIZE);
+    }
+
+    public AESWritableChannel(WritableByteChannel target, AES.KeySchedule schedule, AESModes.Mode mode, boolean encrypt,
+                              byte[] iv, int bufferSize) {
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("buffer size must be at least 16 bytes");
+        this.target = target;
+        this.cipher = new AESStreamCipher(schedule, mode, encrypt, iv);
+        this.inBuf = new byte[bufferSize];
+        this.outBuf = new byte[AESStreamCipher.maxUpdateOutput(bufferSize)];
+        this.outView = ByteBuffer.wrap(outBuf);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+        int total = src.remaining();
+        while (src.hasRemaining()) {
+            if (inLen == inBuf.length)
+                drain();
+            int n = Math.min(src.remaining(), inBuf.length - inLen);
+            src.get(inBuf, inLen, n);
+            inLen += n;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        try {
+            drain();
+            int n;
+            try {
+                n = cipher.doFinal(outBuf, 0);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            writeOut(n);
+        } finally {
+            target.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        int n = cipher.update(inBuf, 0, inLen, outBuf, 0);
+        inLen = 0;
+        writeOut(n);
+    }
+
+    private void writeOut(int n) throws IOException {
+        outView.clear().limit(n);
+        while (outView.hasRemaining())
+            target.write(outView);
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// XTS-AES (IEEE 1619, NIST SP 800-38E) for sector-oriented storage. Every
+// sector is encrypted on its own, in place if wanted, under a tweak derived
+// from its sector number: T = E(K2, sector) for the first block, then
+// multiplied by alpha in GF(2^128) for each following block. Sectors need not
+// be a multiple of 16 bytes; the last partial block uses ciphertext stealing.
+//
+// Runs of sectors are split into chunks on an executor; inside a sector the
+// blocks go to the engine in batches.
+public final class AESXTS {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    // IEEE 1619: at most 2^20 blocks per data unit
+    public static final int MAX_SECTOR_SIZE = 16 << 20;
+
+    private static final int BATCH_BLOCKS = 16;
+
+    private final AES.KeySchedule dataKey;
+    private final AES.KeySchedule tweakKey;
+    private final AES.Engine engine;
+    private final Executor executor;
+    private final int chunkSize;
+
+    // key is Key1 || Key2, 32 bytes for SIZE_16 or 64 bytes for SIZE_32
+    public AESXTS(byte[] key, AES.KeySize size) {
+        this(halfSchedules(key, size));
+    }
+
+    private AESXTS(AES.KeySchedule[] keys) {
+        this(keys[0], keys[1]);
+    }
+
+    public AESXTS(AES.KeySchedule dataKey, AES.KeySchedule tweakKey) {
+        this(dataKey, tweakKey, AES.Engine.TTABLE, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    // A null executor processes everything on the calling thread
+    public AESXTS(AES.KeySchedule dataKey, AES.KeySchedule tweakKey, AES.Engine engine, Executor executor,
+                  int chunkSize) {
+        if (dataKey.size != AES.KeySize.SIZE_16 && dataKey.size != AES.KeySize.SIZE_32)
+            throw new IllegalArgumentException("XTS-AES takes 128 or 256-bit keys");
+        if (tweakKey.size != dataKey.size)
+            throw new IllegalArgumentException("data and tweak keys differ in size");
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive");
+        this.dataKey = dataKey;
+        this.tweakKey = tweakKey;
+        this.engine = engine;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    private static AES.KeySchedule[] halfSchedules(byte[] key, AES.KeySize size) {
+        if (size != AES.KeySize.SIZE_16 && size != AES.KeySize.SIZE_32)
+            throw new IllegalArgumentException("XTS-AES takes 128 or 256-bit keys");
+        if (key.length != 2 * size.value)
+            throw new IllegalArgumentException("XTS key must be two keys of the given size");
+        byte[] key1 = Arrays.copyOfRange(key, 0, size.value);
+        byte[] key2 = Arrays.copyOfRange(key, size.value, key.length);
+        try {
+            // SP 800-38E / IEEE 1619-2018: the two halves must differ
+            if (Arrays.equals(key1, key2))
+                throw new IllegalArgumentException("XTS key halves are identical");
+            return new AES.KeySchedule[]{new AES.KeySchedule(key1, size), new AES.KeySchedule(key2, size)};
+        } finally {
+            Arrays.fill(key1, (byte) 0);
+            Arrays.fill(key2, (byte) 0);
+        }
+    }
+
+    // One sector of len bytes (16 .. MAX_SECTOR_SIZE); in and out may be the same range
+    public void encryptSector(long sector, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        checkSector(len);
+        crypt(true, sector, in, inOff, out, outOff, len, new byte[BATCH_BLOCKS * 16], new byte[BATCH_BLOCKS * 16]);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.XTS_ENCRYPT, dataKey.size, len, start, AES.SUCCESS);
+    }
+
+    public void decryptSector(long sector, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        checkSector(len);
+        crypt(false, sector, in, inOff, out, outOff, len, new byte[BATCH_BLOCKS * 16], new byte[BATCH_BLOCKS * 16]);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.XTS_DECRYPT, dataKey.size, len, start, AES.SUCCESS);
+    }
+
+    // len / sectorSize consecutive sectors numbered from firstSector; len must
+    // be a multiple of sectorSize
+    public void encryptSectors(long firstSector, int sectorSize, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        sectors(true, firstSector, sectorSize, in, inOff, out, outOff, len);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.XTS_ENCRYPT, dataKey.size, len, start, AES.SUCCESS);
+    }
+
+    public void decryptSectors(long firstSector, int sectorSize, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        long start = AESMetrics.ENABLED ? System.nanoTime() : 0;
+        sectors(false, firstSector, sectorSize, in, inOff, out, outOff, len);
+        if (AESMetrics.ENABLED)
+            AESMetrics.record(AESMetrics.Operation.XTS_DECRYPT, dataKey.size, len, start, AES.SUCCESS);
+    }
+
+    private static void checkSector(int len) {
+        if (len < 16 || len > MAX_SECTOR_SIZE)
+            throw new IllegalArgumentException("sector must be 16 to " + MAX_SECTOR_SIZE + " bytes");
+    }
+
+    private void sectors(boolean encrypt, long firstSector, int sectorSize, byte[] in, int inOff, byte[] out,
+                         int outOff, int len) {
+        checkSector(sectorSize);
+        if (len < 0 || len % sectorSize != 0)
+            throw new IllegalArgumentException("length is not a multiple of the sector size");
+        int count = len / sectorSize;
+        int perChunk = Math.max(1, chunkSize / sectorSize);
+        AESParallel.forEachChunk(executor, count, perChunk, (first, n) -> {
+            byte[] tweaks = new byte[BATCH_BLOCKS * 16];
+            byte[] blocks = new byte[BATCH_BLOCKS * 16];
+            for (int s = first; s < first + n; s++)
+                crypt(encrypt, firstSector + s, in, inOff + s * sectorSize, out, outOff + s * sectorSize,
+                    sectorSize, tweaks, blocks);
+        });
+    }
+
+    // The tweak is carried as two little-endian 64-bit halves (lo = bytes 0..7)
+    private void crypt(boolean encrypt, long sector, byte[] in, int inOff, byte[] out, int outOff, int len,
+                       byte[] tweaks, byte[] blocks) {
+        putLongLE(sector, blocks, 0);
+        putLongLE(0, blocks, 8);
+        engine.encryptBlock(tweakKey, blocks, 0, blocks, 0);
+        long lo = getLongLE(blocks, 0), hi = getLongLE(blocks, 8);
+
+        int tail = len & 15;
+        // with a partial last block, the last full block is left for stealing
+        int bulk = (len >>> 4) - (tail == 0 ? 0 : 1);
+        for (int b = 0; b < bulk; ) {
+            int n = Math.min(BATCH_BLOCKS, bulk - b);
+            int base = 16 * b;
+            for (int i = 0; i < 16 * n; i += 16) {
+                putLongLE(lo, tweaks, i);
+                putLongLE(hi, tweaks, i + 8);
+                long carry = hi >> 63;
+                hi = (hi << 1) | (lo >>> 63);
+                lo = (lo << 1) ^ (carry & 0x87);
+            }
+            for (int i = 0; i < 16 * n; i++)
+                blocks[i] = (byte) (in[inOff + base + i] ^ tweaks[i]);
+            if (encrypt)
+                engine.encryptBlocks(dataKey, blocks, 0, blocks, 0, n);
+            else
+                engine.decryptBlocks(dataKey, blocks, 0, blocks, 0, n);
+            for (int i = 0; i < 16 * n; i++)
+                out[outOff + base + i] = (byte) (blocks[i] ^ tweaks[i]);
+            b += n;
+        }
+        if (tail == 0)
+            return;
+
+        // Ciphertext stealing over the last full block p and the tail after it.
+        // Decryption undoes the two blocks in the opposite tweak order.
+        int p = 16 * bulk;
+        long carry = hi >> 63;
+        long nextHi = (hi << 1) | (lo >>> 63);
+        long nextLo = (lo << 1) ^ (carry & 0x87);
+        byte[] last = tweaks;
+        System.arraycopy(in, inOff + p, blocks, 0, 16);
+        if (encrypt)
+            cryptBlock(true, blocks, lo, hi);
+        else
+            cryptBlock(false, blocks, nextLo, nextHi);
+        System.arraycopy(in, inOff + p + 16, last, 0, tail);
+        System.arraycopy(blocks, tail, last, tail, 16 - tail);
+        System.arraycopy(blocks, 0, out, outOff + p + 16, tail);
+        if (encrypt)
+            cryptBlock(true, last, nextLo, nextHi);
+        else
+            cryptBlock(false, last, lo, hi);
+        System.arraycopy(last, 0, out, outOff + p, 16);
+    }
+
+    // block = E/D(block ^ T) ^ T
+    private void cryptBlock(boolean encrypt, byte[] block, long lo, long hi) {
+        for (int i = 0; i < 8; i++) {
+            block[i] ^= (byte) (lo >>> (8 * i));
+            block[8 + i] ^= (byte) (hi >>> (8 * i));
+        }
+        if (encrypt)
+            engine.encryptBlock(dataKey, block, 0, block, 0);
+        else
+            engine.decryptBlock(dataKey, block, 0, block, 0);
+        for (int i = 0; i < 8; i++) {
+            block[i] ^= (byte) (lo >>> (8 * i));
+            block[8 + i] ^= (byte) (hi >>> (8 * i));
+        }
+    }
+
+    private static long getLongLE(byte[] b, int off) {
+        long v = 0;
+        for (int i = 7; i >= 0; i--)
+            v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    private static void putLongLE(long v, byte[] b, int off) {
+        for (int i = 0; i < 8; i++)
+            b[off + i] = (byte) (v >>> (8 * i));
+    }
+}
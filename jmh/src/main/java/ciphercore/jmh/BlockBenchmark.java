@@ -0,0 +1,60 @@
+package ciphercore.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Single-block encryption and decryption for every key size and engine. Each
+// result is returned so JMH consumes it.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class BlockBenchmark {
+
+    @Param({ "BYTE", "TTABLE", "BITSLICED", "VECTOR" })
+    public String engine;
+
+    @Param({ "SIZE_16", "SIZE_24", "SIZE_32" })
+    public String keySize;
+
+    private Object engineValue;
+    private Object schedule;
+    private final byte[] in = new byte[16];
+    private final byte[] out = new byte[16];
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        random.nextBytes(in);
+        engineValue = Library.engine(engine);
+        schedule = Library.NEW_KEY_SCHEDULE.invoke(key, Library.keySize(keySize));
+    }
+
+    @Benchmark
+    public byte[] encryptBlock() throws Throwable {
+        Library.ENCRYPT_BLOCK.invoke(engineValue, schedule, in, 0, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] decryptBlock() throws Throwable {
+        Library.DECRYPT_BLOCK.invoke(engineValue, schedule, in, 0, out, 0);
+        return out;
+    }
+}
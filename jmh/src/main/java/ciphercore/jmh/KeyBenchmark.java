@@ -0,0 +1,52 @@
+package ciphercore.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Key expansion for every key size: expandKey alone, and a full KeySchedule
+// with the per-engine key forms it builds on top.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KeyBenchmark {
+
+    @Param({ "SIZE_16", "SIZE_24", "SIZE_32" })
+    public String keySize;
+
+    private Object sizeValue;
+    private final byte[] key = new byte[32];
+    private byte[] expandedKey;
+
+    @Setup
+    public void setup() throws Throwable {
+        new Random(42).nextBytes(key);
+        sizeValue = Library.keySize(keySize);
+        expandedKey = new byte[16 * ((int) Library.GET_NBR_ROUNDS.invoke(sizeValue) + 1)];
+    }
+
+    @Benchmark
+    public byte[] expandKey() throws Throwable {
+        Library.EXPAND_KEY.invoke(expandedKey, key, sizeValue, expandedKey.length);
+        return expandedKey;
+    }
+
+    @Benchmark
+    public Object keySchedule() throws Throwable {
+        return Library.NEW_KEY_SCHEDULE.invoke(key, sizeValue);
+    }
+}
@@ -0,0 +1,130 @@
+package ciphercore.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+
+// The library lives in the unnamed package, which a named package cannot
+// import, and JMH will not generate code for benchmarks in the unnamed
+// package. So the benchmarks call it through method handles; held in static
+// finals they are constants to the JIT and inline like direct calls.
+final class Library {
+
+    static final Class<?> AES = type("AES");
+    static final Class<?> KEY_SIZE = type("AES$KeySize");
+    static final Class<?> ENGINE = type("AES$Engine");
+    static final Class<?> KEY_SCHEDULE = type("AES$KeySchedule");
+    static final Class<?> MODES = type("AESModes");
+    static final Class<?> MODE = type("AESModes$Mode");
+    static final Class<?> CTR = type("AESCTR");
+    static final Class<?> GCM = type("AESGCM");
+    static final Class<?> XTS = type("AESXTS");
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // AES.expandKey(expandedKey, key, size, expandedKeySize) and AES.getNbrRounds(size)
+    static final MethodHandle EXPAND_KEY = function(AES, "expandKey", void.class,
+        byte[].class, byte[].class, KEY_SIZE, int.class);
+    static final MethodHandle GET_NBR_ROUNDS = function(AES, "getNbrRounds", int.class, KEY_SIZE);
+
+    // AES round functions, each on a 16-byte state in place
+    static final MethodHandle SUB_BYTES = function(AES, "subBytes", void.class, byte[].class);
+    static final MethodHandle SHIFT_ROWS = function(AES, "shiftRows", void.class, byte[].class);
+    static final MethodHandle MIX_COLUMNS = function(AES, "mixColumns", void.class, byte[].class);
+    static final MethodHandle INV_MIX_COLUMNS = function(AES, "invMixColumns", void.class, byte[].class);
+
+    // new AES.KeySchedule(byte[] key, AES.KeySize size)
+    static final MethodHandle NEW_KEY_SCHEDULE = constructor(KEY_SCHEDULE, byte[].class, KEY_SIZE);
+
+    // AES.Engine: (schedule, in, inOff, out, outOff) and the multi-block form with nBlocks
+    static final MethodHandle ENCRYPT_BLOCK = method(ENGINE, "encryptBlock", void.class,
+        KEY_SCHEDULE, byte[].class, int.class, byte[].class, int.class);
+    static final MethodHandle DECRYPT_BLOCK = method(ENGINE, "decryptBlock", void.class,
+        KEY_SCHEDULE, byte[].class, int.class, byte[].class, int.class);
+    static final MethodHandle ENCRYPT_BLOCKS = method(ENGINE, "encryptBlocks", void.class,
+        KEY_SCHEDULE, byte[].class, int.class, byte[].class, int.class, int.class);
+    static final MethodHandle DECRYPT_BLOCKS = method(ENGINE, "decryptBlocks", void.class,
+        KEY_SCHEDULE, byte[].class, int.class, byte[].class, int.class, int.class);
+
+    // AESModes(schedule, engine, executor, chunkSize) and
+    // encrypt/decrypt(mode, iv, in, inOff, len, out, outOff, pad)
+    static final MethodHandle NEW_MODES = constructor(MODES, KEY_SCHEDULE, ENGINE, Executor.class, int.class);
+    static final MethodHandle MODES_ENCRYPT = method(MODES, "encrypt", int.class,
+        MODE, byte[].class, byte[].class, int.class, int.class, byte[].class, int.class, boolean.class);
+    static final MethodHandle MODES_DECRYPT = method(MODES, "decrypt", int.class,
+        MODE, byte[].class, byte[].class, int.class, int.class, byte[].class, int.class, boolean.class);
+
+    // AESCTR(schedule, iv, engine, executor, chunkSize) and
+    // process(in, inOff, out, outOff, len, streamOffset)
+    static final MethodHandle NEW_CTR = constructor(CTR, KEY_SCHEDULE, byte[].class, ENGINE, Executor.class, int.class);
+    static final MethodHandle CTR_PROCESS = method(CTR, "process", void.class,
+        byte[].class, int.class, byte[].class, int.class, int.class, long.class);
+
+    // AESGCM(schedule, engine) and encrypt(iv, aad, in, inOff, len, out, outOff, tag)
+    static final MethodHandle NEW_GCM = constructor(GCM, KEY_SCHEDULE, ENGINE);
+    static final MethodHandle GCM_ENCRYPT = method(GCM, "encrypt", int.class,
+        byte[].class, byte[].class, byte[].class, int.class, int.class, byte[].class, int.class, byte[].class);
+
+    // AESXTS(dataKey, tweakKey, engine, executor, chunkSize) and
+    // encryptSectors/decryptSectors(firstSector, sectorSize, in, inOff, out, outOff, len)
+    static final MethodHandle NEW_XTS = constructor(XTS, KEY_SCHEDULE, KEY_SCHEDULE, ENGINE, Executor.class, int.class);
+    static final MethodHandle XTS_ENCRYPT = method(XTS, "encryptSectors", void.class,
+        long.class, int.class, byte[].class, int.class, byte[].class, int.class, int.class);
+    static final MethodHandle XTS_DECRYPT = method(XTS, "decryptSectors", void.class,
+        long.class, int.class, byte[].class, int.class, byte[].class, int.class, int.class);
+
+    private Library() {
+    }
+
+    static Object keySize(String name) {
+        return constant(KEY_SIZE, name);
+    }
+
+    static Object engine(String name) {
+        return constant(ENGINE, name);
+    }
+
+    static Object mode(String name) {
+        return constant(MODE, name);
+    }
+
+    private static Object constant(Class<?> type, String name) {
+        for (Object c : type.getEnumConstants())
+            if (((Enum<?>) c).name().equals(name))
+                return c;
+        throw new IllegalArgumentException("no " + type.getSimpleName() + " " + name);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("the library is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle function(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return MethodHandles.publicLookup().findStatic(type, name, MethodType.methodType(result, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(type, name, MethodType.methodType(result, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ciphercore.jmh;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Bulk throughput of the modes on 1 KB, 64 KB and 16 MB buffers with a
+// 128-bit key, on the calling thread or split across the common pool. Run
+// with -prof gc: its gc.alloc.rate.norm counts the pool threads as well.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ModeBenchmark {
+
+    @Param({ "TTABLE", "BITSLICED", "VECTOR" })
+    public String engine;
+
+    @Param({ "1024", "65536", "16777216" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private static final Object ECB = Library.mode("ECB");
+    private static final Object CBC = Library.mode("CBC");
+
+    private Object engineValue;
+    private Object schedule;
+    private Object modes;
+    private Object ctr;
+    private Object gcm;
+    private Object xts;
+    private final byte[] iv = new byte[16];
+    private final byte[] gcmIv = new byte[12];
+    private final byte[] tag = new byte[16];
+    private byte[] src;
+    private byte[] dst;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        byte[] key = new byte[16];
+        byte[] tweakKey = new byte[16];
+        random.nextBytes(key);
+        random.nextBytes(tweakKey);
+        src = new byte[size];
+        dst = new byte[size];
+        random.nextBytes(src);
+
+        Object size16 = Library.keySize("SIZE_16");
+        schedule = Library.NEW_KEY_SCHEDULE.invoke(key, size16);
+        Object tweakSchedule = Library.NEW_KEY_SCHEDULE.invoke(tweakKey, size16);
+        Executor executor = parallel ? ForkJoinPool.commonPool() : null;
+        engineValue = Library.engine(engine);
+        modes = Library.NEW_MODES.invoke(schedule, engineValue, executor, Library.CHUNK_SIZE);
+        ctr = Library.NEW_CTR.invoke(schedule, iv, engineValue, executor, Library.CHUNK_SIZE);
+        gcm = Library.NEW_GCM.invoke(schedule, engineValue);
+        xts = Library.NEW_XTS.invoke(schedule, tweakSchedule, engineValue, executor, Library.CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public byte[] blocks() throws Throwable {
+        Library.ENCRYPT_BLOCKS.invoke(engineValue, schedule, src, 0, dst, 0, size / 16);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] ctr() throws Throwable {
+        Library.CTR_PROCESS.invoke(ctr, src, 0, dst, 0, size, 0L);
+        return dst;
+    }
+
+    @Benchmark
+    public void ecbEncrypt(Blackhole bh) throws Throwable {
+        bh.consume((int) Library.MODES_ENCRYPT.invoke(modes, ECB, (byte[]) null, src, 0, size, dst, 0, false));
+        bh.consume(dst);
+    }
+
+    @Benchmark
+    public void cbcEncrypt(Blackhole bh) throws Throwable {
+        bh.consume((int) Library.MODES_ENCRYPT.invoke(modes, CBC, iv, src, 0, size, dst, 0, false));
+        bh.consume(dst);
+    }
+
+    @Benchmark
+    public void cbcDecrypt(Blackhole bh) throws Throwable {
+        bh.consume((int) Library.MODES_DECRYPT.invoke(modes, CBC, iv, src, 0, size, dst, 0, false));
+        bh.consume(dst);
+    }
+
+    @Benchmark
+    public void gcmEncrypt(Blackhole bh) throws Throwable {
+        bh.consume((int) Library.GCM_ENCRYPT.invoke(gcm, gcmIv, (byte[]) null, src, 0, size, dst, 0, tag));
+        bh.consume(dst);
+        bh.consume(tag);
+    }
+
+    @Benchmark
+    public byte[] xtsEncrypt() throws Throwable {
+        Library.XTS_ENCRYPT.invoke(xts, 0L, 512, src, 0, dst, 0, size);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] xtsDecrypt() throws Throwable {
+        Library.XTS_DECRYPT.invoke(xts, 0L, 512, src, 0, dst, 0, size);
+        return dst;
+    }
+}
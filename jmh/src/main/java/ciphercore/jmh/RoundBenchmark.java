@@ -0,0 +1,56 @@
+package ciphercore.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The byte-oriented round functions, each on one 16-byte state in place.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class RoundBenchmark {
+
+    private final byte[] state = new byte[16];
+
+    @Setup
+    public void setup() {
+        new Random(42).nextBytes(state);
+    }
+
+    @Benchmark
+    public byte[] subBytes() throws Throwable {
+        Library.SUB_BYTES.invoke(state);
+        return state;
+    }
+
+    @Benchmark
+    public byte[] shiftRows() throws Throwable {
+        Library.SHIFT_ROWS.invoke(state);
+        return state;
+    }
+
+    @Benchmark
+    public byte[] mixColumns() throws Throwable {
+        Library.MIX_COLUMNS.invoke(state);
+        return state;
+    }
+
+    @Benchmark
+    public byte[] invMixColumns() throws Throwable {
+        Library.INV_MIX_COLUMNS.invoke(state);
+        return state;
+    }
+}